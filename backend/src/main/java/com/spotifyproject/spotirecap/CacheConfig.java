@@ -0,0 +1,156 @@
+package com.spotifyproject.spotirecap;
+
+import com.spotifyproject.spotirecap.cache.CacheInvalidationPublisher;
+import com.spotifyproject.spotirecap.cache.CacheInvalidationSubscriber;
+import com.spotifyproject.spotirecap.cache.RedisCacheLock;
+import com.spotifyproject.spotirecap.cache.RedisEntryHeaders;
+import com.spotifyproject.spotirecap.cache.TokenKeyGenerator;
+import com.spotifyproject.spotirecap.cache.TwoTierCacheManager;
+import com.spotifyproject.spotirecap.cache.UserKeyGenerator;
+import com.spotifyproject.spotirecap.exception.SpotifyRateLimitedException;
+import com.spotifyproject.spotirecap.exception.SpotifyUnavailableException;
+import com.spotifyproject.spotirecap.service.SpotifyUserService;
+import com.spotifyproject.spotirecap.upstream.CircuitBreaker;
+import com.spotifyproject.spotirecap.upstream.UpstreamPriority;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.data.redis.cache.RedisCacheManager;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.function.Predicate;
+
+@Configuration
+public class CacheConfig {
+
+    @Value("${cache.l1.max-size:10000}")
+    private long l1MaxSize;
+
+    @Value("${cache.l1.ttl:60s}")
+    private Duration l1Ttl;
+
+    // after the soft TTL an entry is still served but refreshed in the background, the hard TTL is cache.ttl.*
+    @Value("${cache.soft-ttl.top-tracks:15m}")
+    private Duration topTracksSoftTtl;
+
+    @Value("${cache.soft-ttl.top-artists:15m}")
+    private Duration topArtistsSoftTtl;
+
+    @Value("${cache.soft-ttl.top-genres:15m}")
+    private Duration topGenresSoftTtl;
+
+    // past these an entry is reloaded, redis keeps it cache.stale-if-error longer for when the reload can't reach spotify
+    @Value("${cache.ttl.top-tracks:1h}")
+    private Duration topTracksTtl;
+
+    @Value("${cache.ttl.top-artists:1h}")
+    private Duration topArtistsTtl;
+
+    @Value("${cache.ttl.top-genres:1h}")
+    private Duration topGenresTtl;
+
+    @Value("${cache.ttl.user-profiles:10m}")
+    private Duration userProfilesTtl;
+
+    // consecutive redis failures before the caches stop asking it and run on L1 alone, and how long until the
+    // next attempt. requests never fail because of redis, it only costs them the command timeout until then
+    @Value("${cache.l2.failure-threshold:3}")
+    private int l2FailureThreshold;
+
+    @Value("${cache.l2.retry-interval:10s}")
+    private Duration l2RetryInterval;
+
+    @Value("${cache.refresh.threads:4}")
+    private int refreshThreads;
+
+    @Value("${cache.refresh.queue-capacity:100}")
+    private int refreshQueueCapacity;
+
+    // cross-node single-flight, off by default since it costs a SETNX per miss
+    @Value("${cache.single-flight.distributed-lock:false}")
+    private boolean distributedLock;
+
+    @Value("${cache.single-flight.lock-ttl:10s}")
+    private Duration lockTtl;
+
+    @Value("${cache.single-flight.lock-wait:5s}")
+    private Duration lockWait;
+
+    @Bean
+    public CacheInvalidationPublisher cacheInvalidationPublisher(StringRedisTemplate stringRedisTemplate) {
+        return new CacheInvalidationPublisher(stringRedisTemplate);
+    }
+
+    // the listener container is owned by the subscriber, which starts it in the background and keeps retrying instead of failing startup
+    @Bean
+    public CacheInvalidationSubscriber cacheInvalidationSubscriber(RedisConnectionFactory redisConnectionFactory,
+                                                                   CacheInvalidationPublisher cacheInvalidationPublisher) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(redisConnectionFactory);
+        container.addMessageListener(cacheInvalidationPublisher, new ChannelTopic(CacheInvalidationPublisher.CHANNEL));
+        container.afterPropertiesSet();
+        return new CacheInvalidationSubscriber(container, Duration.ofSeconds(30));
+    }
+
+    @Bean
+    public TokenKeyGenerator tokenKeyGenerator() {
+        return new TokenKeyGenerator();
+    }
+
+    @Bean
+    public UserKeyGenerator userKeyGenerator(SpotifyUserService spotifyUserService) {
+        return new UserKeyGenerator(spotifyUserService);
+    }
+
+    // background refreshes for stale entries, bounded so a burst of stale hits can't pile up work,
+    // and marked BACKGROUND so they queue behind interactive requests in the SpotifyDispatcher
+    @Bean
+    public ThreadPoolTaskExecutor cacheRefreshExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setThreadNamePrefix("cache-refresh-");
+        executor.setCorePoolSize(refreshThreads);
+        executor.setMaxPoolSize(refreshThreads);
+        executor.setQueueCapacity(refreshQueueCapacity);
+        executor.setTaskDecorator(task -> () -> UpstreamPriority.BACKGROUND.run(task));
+        return executor;
+    }
+
+    // primary so @Cacheable goes through both tiers, the RedisCacheManager bean is only its L2
+    @Bean
+    @Primary
+    public TwoTierCacheManager cacheManager(RedisCacheManager redisCacheManager,
+                                            CacheInvalidationPublisher cacheInvalidationPublisher,
+                                            StringRedisTemplate stringRedisTemplate,
+                                            @Qualifier("cacheRedisConnectionFactory") RedisConnectionFactory cacheRedisConnectionFactory,
+                                            ThreadPoolTaskExecutor cacheRefreshExecutor) {
+        RedisCacheLock cacheLock = distributedLock
+                ? new RedisCacheLock(stringRedisTemplate, lockTtl, lockWait, Duration.ofMillis(50))
+                : null;
+        Map<String, Duration> softTtls = Map.of(
+                "topTracks", topTracksSoftTtl,
+                "artistSnapshots", topArtistsSoftTtl,
+                "topGenres", topGenresSoftTtl
+        );
+        Map<String, Duration> hardTtls = Map.of(
+                "topTracks", topTracksTtl,
+                "artistSnapshots", topArtistsTtl,
+                "topGenres", topGenresTtl,
+                "userProfiles", userProfilesTtl
+        );
+        // only when spotify itself is the problem: failing, rate limiting us, or behind an open breaker
+        Predicate<Throwable> spotifyDown = e -> e instanceof SpotifyUnavailableException || e instanceof SpotifyRateLimitedException;
+
+        return new TwoTierCacheManager(redisCacheManager, cacheInvalidationPublisher, cacheLock,
+                new RedisEntryHeaders(cacheRedisConnectionFactory), new CircuitBreaker(l2FailureThreshold, l2RetryInterval),
+                l1MaxSize, l1Ttl, softTtls, hardTtls, spotifyDown, cacheRefreshExecutor);
+    }
+}
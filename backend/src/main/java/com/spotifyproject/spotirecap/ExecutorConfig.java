@@ -0,0 +1,87 @@
+package com.spotifyproject.spotirecap;
+
+import com.spotifyproject.spotirecap.upstream.UpstreamPriority;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+@Configuration
+public class ExecutorConfig {
+
+    // how many upstream calls a single node runs at once for /api/recap fan-outs
+    @Value("${recap.parallelism:8}")
+    private int recapParallelism;
+
+    @Value("${recap.queue-capacity:200}")
+    private int recapQueueCapacity;
+
+    // how many users the cache warm-up job warms at once, it queues up to a page of them
+    @Value("${warmup.parallelism:2}")
+    private int warmupParallelism;
+
+    @Value("${warmup.page-size:100}")
+    private int warmupPageSize;
+
+    @Value("${warmup.sign-in.queue-capacity:1000}")
+    private int signInQueueCapacity;
+
+    // the async controller methods, i.e. requests that may wait on spotify. past threads + queue-capacity a request
+    // is turned away with a 503 right away instead of piling up
+    @Value("${http.upstream.threads:64}")
+    private int upstreamRequestThreads;
+
+    @Value("${http.upstream.queue-capacity:200}")
+    private int upstreamRequestQueueCapacity;
+
+    @Bean
+    public ThreadPoolTaskExecutor upstreamRequestExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setThreadNamePrefix("upstream-request-");
+        executor.setCorePoolSize(upstreamRequestThreads);
+        executor.setMaxPoolSize(upstreamRequestThreads);
+        executor.setQueueCapacity(upstreamRequestQueueCapacity);
+        return executor;
+    }
+
+    @Bean
+    public ThreadPoolTaskExecutor recapExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setThreadNamePrefix("recap-");
+        executor.setCorePoolSize(recapParallelism);
+        executor.setMaxPoolSize(recapParallelism);
+        executor.setQueueCapacity(recapQueueCapacity);
+        // once the queue is full the request thread does the work itself instead of failing the section
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        return executor;
+    }
+
+    // records sign-ins for the warm-up. that's only nice to have, so past the queue they're discarded: never run on
+    // the request thread like the recap pool does
+    @Bean
+    public ThreadPoolTaskExecutor signInRecorderExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setThreadNamePrefix("sign-in-recorder-");
+        executor.setCorePoolSize(2);
+        executor.setMaxPoolSize(2);
+        executor.setQueueCapacity(signInQueueCapacity);
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.DiscardPolicy());
+        return executor;
+    }
+
+    // BACKGROUND so warm-up calls queue behind interactive requests in the SpotifyDispatcher
+    @Bean
+    public ThreadPoolTaskExecutor cacheWarmupExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setThreadNamePrefix("cache-warmup-");
+        executor.setCorePoolSize(warmupParallelism);
+        executor.setMaxPoolSize(warmupParallelism);
+        executor.setQueueCapacity(warmupPageSize);
+        executor.setTaskDecorator(task -> () -> UpstreamPriority.BACKGROUND.run(task));
+        return executor;
+    }
+}
@@ -1,33 +1,234 @@
 package com.spotifyproject.spotirecap;
 
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.spotifyproject.spotirecap.cache.VersionedJsonRedisSerializer;
+import com.spotifyproject.spotirecap.model.TopArtist;
+import com.spotifyproject.spotirecap.model.TopGenre;
+import com.spotifyproject.spotirecap.model.TopTrack;
+import com.spotifyproject.spotirecap.model.UserProfile;
+
+import io.lettuce.core.ClientOptions;
+import io.lettuce.core.ReadFrom;
+import io.lettuce.core.SocketOptions;
+import io.lettuce.core.TimeoutOptions;
+import io.lettuce.core.cluster.ClusterClientOptions;
+import io.lettuce.core.cluster.ClusterTopologyRefreshOptions;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.data.redis.cache.RedisCacheConfiguration;
+import org.springframework.data.redis.cache.RedisCacheManager;
+import org.springframework.data.redis.connection.*;
 import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.connection.lettuce.LettucePoolingClientConfiguration;
+import org.springframework.data.redis.serializer.RedisSerializationContext;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 @Configuration
 public class RedisConfig {
 
-    @Value("${spring.redis.host}")
+    // "standalone" (host/port), "sentinel" (sentinel.master + sentinel.nodes) or "cluster" (cluster.nodes)
+    @Value("${spring.redis.mode:standalone}")
+    private String mode;
+
+    @Value("${spring.redis.host:localhost}")
     private String host;
 
-    @Value("${spring.redis.port}")
+    @Value("${spring.redis.port:6379}")
     private int port;
 
     @Value("${spring.redis.password:}")
     private String password;
 
+    @Value("${spring.redis.sentinel.master:mymaster}")
+    private String sentinelMaster;
+
+    // host:port,host:port
+    @Value("${spring.redis.sentinel.nodes:}")
+    private List<String> sentinelNodes;
+
+    @Value("${spring.redis.cluster.nodes:}")
+    private List<String> clusterNodes;
+
+    @Value("${spring.redis.cluster.max-redirects:3}")
+    private int clusterMaxRedirects;
+
+    // slot moves and failovers are also picked up right away from MOVED/ASK redirects and reconnects
+    @Value("${spring.redis.cluster.topology-refresh:30s}")
+    private Duration clusterTopologyRefresh;
+
+    // where the cache's reads go in sentinel/cluster mode, everything else always reads from the master
+    @Value("${spring.redis.cache-read-from:replica-preferred}")
+    private String cacheReadFrom;
+
+    // a redis that's slow or gone has to fail fast, TwoTierCache then serves from L1 and loads from spotify
+    @Value("${spring.redis.timeout:500ms}")
+    private Duration commandTimeout;
+
+    @Value("${spring.redis.connect-timeout:1s}")
+    private Duration connectTimeout;
+
+    // lettuce multiplexes everything over one shared connection, the pool is for blocking and transactional
+    // commands that need a connection of their own
+    @Value("${spring.redis.pool.max-active:16}")
+    private int poolMaxActive;
+
+    @Value("${spring.redis.pool.max-idle:8}")
+    private int poolMaxIdle;
+
+    @Value("${spring.redis.pool.min-idle:0}")
+    private int poolMinIdle;
+
+    @Value("${spring.redis.pool.max-wait:500ms}")
+    private Duration poolMaxWait;
+
+    @Value("${cache.ttl.default:1h}")
+    private Duration defaultTtl;
+
+    @Value("${cache.ttl.top-tracks:1h}")
+    private Duration topTracksTtl;
+
+    @Value("${cache.ttl.top-artists:1h}")
+    private Duration topArtistsTtl;
+
+    @Value("${cache.ttl.top-genres:1h}")
+    private Duration topGenresTtl;
+
+    @Value("${cache.ttl.user-profiles:10m}")
+    private Duration userProfilesTtl;
+
+    // how long past cache.ttl.* redis keeps an entry to serve while spotify is down (see TwoTierCache)
+    @Value("${cache.stale-if-error:24h}")
+    private Duration staleIfError;
+
+    // entries under this many bytes of JSON are stored as-is, gzip only pays off on the bigger lists
+    @Value("${cache.compression-threshold:512}")
+    private int compressionThreshold;
+
+    // tokens, locks, warm-up and history state: read-after-write matters there, so reads stay on the master
     @Bean
+    @Primary
     public LettuceConnectionFactory redisConnectionFactory() {
-        RedisStandaloneConfiguration config = new RedisStandaloneConfiguration();
-        config.setHostName(host);
-        config.setPort(port);
+        return connectionFactory(ReadFrom.UPSTREAM);
+    }
 
-        if (password != null && !password.isBlank()) {
-            config.setPassword(password);
+    // the L2 cache's own connections. a replica a few ms behind is fine for cache entries, and spreads the reads
+    @Bean
+    public LettuceConnectionFactory cacheRedisConnectionFactory() {
+        return connectionFactory(ReadFrom.valueOf(cacheReadFrom.replace("-", "").replace("_", "")));
+    }
+
+    LettuceConnectionFactory connectionFactory(ReadFrom readFrom) {
+        GenericObjectPoolConfig<?> poolConfig = new GenericObjectPoolConfig<>();
+        poolConfig.setMaxTotal(poolMaxActive);
+        poolConfig.setMaxIdle(poolMaxIdle);
+        poolConfig.setMinIdle(poolMinIdle);
+        poolConfig.setMaxWait(poolMaxWait);
+
+        SocketOptions socketOptions = SocketOptions.builder().connectTimeout(connectTimeout).build();
+        TimeoutOptions timeoutOptions = TimeoutOptions.enabled(commandTimeout);
+
+        LettucePoolingClientConfiguration.LettucePoolingClientConfigurationBuilder clientConfig = LettucePoolingClientConfiguration.builder()
+                .poolConfig(poolConfig)
+                .commandTimeout(commandTimeout);
+
+        switch (mode.toLowerCase()) {
+            case "standalone" -> {
+                RedisStandaloneConfiguration config = new RedisStandaloneConfiguration(host, port);
+                config.setPassword(redisPassword());
+                // a single node has no replicas to read from, readFrom doesn't apply
+                clientConfig.clientOptions(clientOptions(ClientOptions.builder(), socketOptions, timeoutOptions).build());
+                return new LettuceConnectionFactory(config, clientConfig.build());
+            }
+            case "sentinel" -> {
+                RedisSentinelConfiguration config = new RedisSentinelConfiguration();
+                config.master(sentinelMaster);
+                config.setSentinels(nodes(sentinelNodes, "spring.redis.sentinel.nodes"));
+                config.setPassword(redisPassword());
+                clientConfig.readFrom(readFrom)
+                        .clientOptions(clientOptions(ClientOptions.builder(), socketOptions, timeoutOptions).build());
+                return new LettuceConnectionFactory(config, clientConfig.build());
+            }
+            case "cluster" -> {
+                RedisClusterConfiguration config = new RedisClusterConfiguration();
+                config.setClusterNodes(nodes(clusterNodes, "spring.redis.cluster.nodes"));
+                config.setMaxRedirects(clusterMaxRedirects);
+                config.setPassword(redisPassword());
+                ClusterTopologyRefreshOptions topologyRefresh = ClusterTopologyRefreshOptions.builder()
+                        .enablePeriodicRefresh(clusterTopologyRefresh)
+                        .enableAllAdaptiveRefreshTriggers()
+                        .build();
+                ClusterClientOptions.Builder options = ClusterClientOptions.builder()
+                        .topologyRefreshOptions(topologyRefresh)
+                        .maxRedirects(clusterMaxRedirects);
+                clientConfig.readFrom(readFrom)
+                        .clientOptions(clientOptions(options, socketOptions, timeoutOptions).build());
+                return new LettuceConnectionFactory(config, clientConfig.build());
+            }
+            default -> throw new IllegalArgumentException("Unknown spring.redis.mode: " + mode);
+        }
+    }
+
+    // commands are rejected right away while disconnected instead of queueing up until they time out
+    private static <B extends ClientOptions.Builder> B clientOptions(B builder, SocketOptions socketOptions, TimeoutOptions timeoutOptions) {
+        builder.socketOptions(socketOptions)
+                .timeoutOptions(timeoutOptions)
+                .disconnectedBehavior(ClientOptions.DisconnectedBehavior.REJECT_COMMANDS);
+        return builder;
+    }
+
+    private RedisPassword redisPassword() {
+        return password == null || password.isBlank() ? RedisPassword.none() : RedisPassword.of(password);
+    }
+
+    private static List<RedisNode> nodes(List<String> hostsAndPorts, String property) {
+        List<RedisNode> nodes = hostsAndPorts.stream()
+                .map(String::trim)
+                .filter(node -> !node.isEmpty())
+                .map(RedisNode::fromString)
+                .toList();
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException(property + " is required in this spring.redis.mode");
         }
+        return nodes;
+    }
+
+    // the shared L2, each recap cache gets its own TTL and a typed, versioned value format
+    @Bean
+    public RedisCacheManager redisCacheManager(@Qualifier("cacheRedisConnectionFactory") RedisConnectionFactory cacheRedisConnectionFactory) {
+        ObjectMapper objectMapper = new ObjectMapper();
+
+        Map<String, RedisCacheConfiguration> cacheConfigs = new HashMap<>();
+        cacheConfigs.put("topTracks", typedCacheConfig(objectMapper, TopTrack.class, topTracksTtl));
+        cacheConfigs.put("artistSnapshots", typedCacheConfig(objectMapper, TopArtist.class, topArtistsTtl));
+        cacheConfigs.put("topGenres", typedCacheConfig(objectMapper, TopGenre.class, topGenresTtl));
+        cacheConfigs.put("userProfiles", typedCacheConfig(objectMapper,
+                objectMapper.getTypeFactory().constructType(UserProfile.class), userProfilesTtl));
+
+        return RedisCacheManager.builder(cacheRedisConnectionFactory)
+                .cacheDefaults(RedisCacheConfiguration.defaultCacheConfig().entryTtl(defaultTtl))
+                .withInitialCacheConfigurations(cacheConfigs)
+                .build();
+    }
+
+    private RedisCacheConfiguration typedCacheConfig(ObjectMapper objectMapper, Class<?> elementType, Duration ttl) {
+        return typedCacheConfig(objectMapper, objectMapper.getTypeFactory().constructCollectionType(List.class, elementType), ttl);
+    }
+
+    private RedisCacheConfiguration typedCacheConfig(ObjectMapper objectMapper, JavaType valueType, Duration ttl) {
+        VersionedJsonRedisSerializer serializer = new VersionedJsonRedisSerializer(objectMapper, valueType, compressionThreshold);
 
-        return new LettuceConnectionFactory(config);
+        return RedisCacheConfiguration.defaultCacheConfig()
+                .entryTtl(ttl.plus(staleIfError))
+                .disableCachingNullValues()
+                .serializeValuesWith(RedisSerializationContext.SerializationPair.fromSerializer(serializer));
     }
 }
@@ -0,0 +1,84 @@
+package com.spotifyproject.spotirecap;
+
+import com.spotifyproject.spotirecap.upstream.SpotifyMetricsInterceptor;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.web.client.RestTemplate;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+@Configuration
+public class SpotifyClientConfig {
+
+    // "jdk" = pooled keep-alive HTTP/2 java.net.http client, "simple" = the old per-request HttpURLConnection
+    @Value("${spotify.http.engine:jdk}")
+    private String engine;
+
+    @Value("${spotify.http.connect-timeout:2s}")
+    private Duration connectTimeout;
+
+    @Value("${spotify.http.read-timeout:5s}")
+    private Duration readTimeout;
+
+    // threads the jdk client uses for its own async/io work, independent of how many callers are waiting
+    @Value("${spotify.http.client-threads:4}")
+    private int clientThreads;
+
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService spotifyHttpClientExecutor() {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("spotify-http-");
+        threadFactory.setDaemon(true);
+        return Executors.newFixedThreadPool(clientThreads, threadFactory);
+    }
+
+    // pool size / active / queued of the client's io threads, the jdk client exposes nothing about its connections
+    @Bean
+    public MeterBinder spotifyHttpClientExecutorMetrics(ExecutorService spotifyHttpClientExecutor) {
+        return new ExecutorServiceMetrics(spotifyHttpClientExecutor, "spotifyHttpClient", Tags.empty());
+    }
+
+    @Bean
+    public RestTemplate spotifyRestTemplate(ExecutorService spotifyHttpClientExecutor, MeterRegistry meterRegistry) {
+        RestTemplate restTemplate = new RestTemplate(spotifyRequestFactory(spotifyHttpClientExecutor));
+        restTemplate.getInterceptors().add(new SpotifyMetricsInterceptor(meterRegistry));
+        return restTemplate;
+    }
+
+    ClientHttpRequestFactory spotifyRequestFactory(ExecutorService executor) {
+        if ("simple".equalsIgnoreCase(engine)) {
+            SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+            requestFactory.setConnectTimeout(connectTimeout);
+            requestFactory.setReadTimeout(readTimeout);
+            return requestFactory;
+        }
+
+        if (!"jdk".equalsIgnoreCase(engine)) {
+            throw new IllegalArgumentException("Unknown spotify.http.engine: " + engine);
+        }
+
+        // one shared client = one connection pool, connections are kept alive and multiplexed over h2 where possible
+        HttpClient httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(connectTimeout)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .executor(executor)
+                .build();
+
+        JdkClientHttpRequestFactory requestFactory = new JdkClientHttpRequestFactory(httpClient, executor);
+        requestFactory.setReadTimeout(readTimeout);
+        return requestFactory;
+    }
+}
@@ -1,14 +1,24 @@
 package com.spotifyproject.spotirecap;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
+import java.time.Duration;
+
 @Configuration
 public class WebConfig {
+
+    // an async request still waiting after this gets a 503, a bit past spotify.dispatch.timeout
+    @Value("${http.upstream.timeout:20s}")
+    private Duration upstreamRequestTimeout;
+
     @Bean
-    public WebMvcConfigurer corsConfigurer() {
+    public WebMvcConfigurer corsConfigurer(ThreadPoolTaskExecutor upstreamRequestExecutor) {
         return new WebMvcConfigurer() {
             @Override
             public void addCorsMappings(CorsRegistry registry) {
@@ -20,6 +30,13 @@ public class WebConfig {
                         .allowedMethods("GET", "POST", "PUT", "DELETE")
                         .allowedHeaders("*");
             }
+
+            // the Callables the controller returns for anything that may wait on spotify
+            @Override
+            public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+                configurer.setTaskExecutor(upstreamRequestExecutor);
+                configurer.setDefaultTimeout(upstreamRequestTimeout.toMillis());
+            }
         };
     }
 }
@@ -1,17 +1,27 @@
 package com.spotifyproject.spotirecap.advice;
 
 import com.spotifyproject.spotirecap.exception.SpotifyApiException;
+import com.spotifyproject.spotirecap.exception.SpotifyRateLimitedException;
+import com.spotifyproject.spotirecap.exception.SpotifyUnavailableException;
+import com.spotifyproject.spotirecap.logging.LogSampler;
 
+import jakarta.servlet.http.HttpServletRequest;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.task.TaskRejectedException;
 import org.springframework.http.*;
 import org.springframework.web.bind.MissingRequestHeaderException;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.AsyncRequestTimeoutException;
 import org.springframework.http.converter.HttpMessageNotReadableException;
 
+import java.time.Duration;
 import java.util.Map;
 
 @ControllerAdvice
 public class GlobalExceptionHandler {
 
+    private final LogSampler errorLog = new LogSampler(LoggerFactory.getLogger(GlobalExceptionHandler.class), Duration.ofSeconds(10), 5);
+
     @ExceptionHandler(HttpMessageNotReadableException.class)
     public ResponseEntity<?> handleUnreadableBody(HttpMessageNotReadableException ex) {
         return ResponseEntity
@@ -29,15 +39,40 @@ public class GlobalExceptionHandler {
                 .body(Map.of("error", errorMsg));
     }
 
+    // the controller doesn't catch anything, so spotify's rate limits and outages get their proper status here
+    // instead of ending up as a 500
+    @ExceptionHandler(SpotifyRateLimitedException.class)
+    public ResponseEntity<?> handleSpotifyRateLimited(SpotifyRateLimitedException ex) {
+        return ResponseEntity
+                .status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(Math.max(1, ex.getRetryAfter().toSeconds())))
+                .body(Map.of("error", ex.getMessage()));
+    }
+
+    @ExceptionHandler(SpotifyUnavailableException.class)
+    public ResponseEntity<?> handleSpotifyUnavailable(SpotifyUnavailableException ex) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(Map.of("error", ex.getMessage()));
+    }
+
+    // anything else spotify (or the image CDN) didn't deliver
     @ExceptionHandler(SpotifyApiException.class)
     public ResponseEntity<?> handleSpotifyApiException(SpotifyApiException ex) {
         return ResponseEntity.status(HttpStatus.BAD_GATEWAY).body(Map.of("error", ex.getMessage()));
     }
 
+    // the upstream request pool is full, or a request waited past http.upstream.timeout
+    @ExceptionHandler({TaskRejectedException.class, AsyncRequestTimeoutException.class})
+    public ResponseEntity<?> handleOverloaded(Exception ex) {
+        return ResponseEntity
+                .status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .body(Map.of("error", "Too many requests waiting on Spotify, try again shortly"));
+    }
+
     // triggered for uncaught exceptions
     @ExceptionHandler(Exception.class)
-    public ResponseEntity<?> handleOtherExceptions(Exception ex) {
-        ex.printStackTrace();
+    public ResponseEntity<?> handleOtherExceptions(Exception ex, HttpServletRequest request) {
+        errorLog.error("unhandled exception", request.getRequestURI(), ex);
         return ResponseEntity
                 .status(HttpStatus.INTERNAL_SERVER_ERROR)
                 .body(Map.of("error", "Internal server error"));
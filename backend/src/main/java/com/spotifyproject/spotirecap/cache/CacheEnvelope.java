@@ -0,0 +1,17 @@
+package com.spotifyproject.spotirecap.cache;
+
+import java.io.Serializable;
+import java.time.Duration;
+
+// what actually sits in both tiers: the cached value plus when it was loaded, so a cache can tell stale from fresh,
+// and a hash of its content (see ContentHash) that serves as the ETag
+public record CacheEnvelope(Object value, long writtenAt, long contentHash) implements Serializable {
+
+    public static CacheEnvelope of(Object value) {
+        return new CacheEnvelope(value, System.currentTimeMillis(), ContentHash.of(value));
+    }
+
+    public boolean isOlderThan(Duration age) {
+        return System.currentTimeMillis() - writtenAt > age.toMillis();
+    }
+}
@@ -0,0 +1,66 @@
+package com.spotifyproject.spotirecap.cache;
+
+import com.spotifyproject.spotirecap.logging.LogSampler;
+
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.function.BiConsumer;
+
+// tells the other nodes to drop an L1 entry after this node wrote or evicted it in L2
+public class CacheInvalidationPublisher implements MessageListener {
+
+    public static final String CHANNEL = "spotirecap:cache-invalidation";
+
+    // message layout: nodeId|cacheName|key, an empty key means clear the whole cache
+    private static final String SEPARATOR = "|";
+
+    // every write publishes, so with redis down this would otherwise log once per cache write
+    private final LogSampler publishFailureLog =
+            new LogSampler(LoggerFactory.getLogger(CacheInvalidationPublisher.class), Duration.ofSeconds(30), 1);
+
+    private final String nodeId = UUID.randomUUID().toString();
+    private final StringRedisTemplate redisTemplate;
+
+    private BiConsumer<String, String> invalidationHandler = (cacheName, key) -> { };
+
+    public CacheInvalidationPublisher(StringRedisTemplate redisTemplate) {
+        this.redisTemplate = redisTemplate;
+    }
+
+    void setInvalidationHandler(BiConsumer<String, String> invalidationHandler) {
+        this.invalidationHandler = invalidationHandler;
+    }
+
+    void publishEvict(String cacheName, Object key) {
+        publish(cacheName, String.valueOf(key));
+    }
+
+    void publishClear(String cacheName) {
+        publish(cacheName, "");
+    }
+
+    private void publish(String cacheName, String key) {
+        try {
+            redisTemplate.convertAndSend(CHANNEL, nodeId + SEPARATOR + cacheName + SEPARATOR + key);
+        }
+        catch (Exception e) {
+            // the write itself already succeeded, other nodes just keep their L1 entry until its TTL runs out
+            publishFailureLog.warn("cache invalidation publish failed", cacheName, e);
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String[] parts = new String(message.getBody(), StandardCharsets.UTF_8).split("\\|", 3);
+        if (parts.length != 3 || nodeId.equals(parts[0])) {
+            return;
+        }
+        invalidationHandler.accept(parts[1], parts[2].isEmpty() ? null : parts[2]);
+    }
+}
@@ -0,0 +1,75 @@
+package com.spotifyproject.spotirecap.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.time.Duration;
+
+// subscribes to invalidation messages in the background so the app still boots (L1 + TTL only) while Redis is down
+public class CacheInvalidationSubscriber implements SmartLifecycle, DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(CacheInvalidationSubscriber.class);
+
+    private final RedisMessageListenerContainer container;
+    private final Duration retryInterval;
+
+    private volatile boolean running;
+    private Thread subscriberThread;
+
+    public CacheInvalidationSubscriber(RedisMessageListenerContainer container, Duration retryInterval) {
+        this.container = container;
+        this.retryInterval = retryInterval;
+    }
+
+    @Override
+    public synchronized void start() {
+        running = true;
+        subscriberThread = new Thread(this::subscribeUntilConnected, "cache-invalidation-subscriber");
+        subscriberThread.setDaemon(true);
+        subscriberThread.start();
+    }
+
+    private void subscribeUntilConnected() {
+        while (running) {
+            try {
+                container.start();
+                return;
+            }
+            catch (Exception e) {
+                log.warn("cache invalidation subscribe failed retryIn={} error=\"{}\"", retryInterval, e.getMessage());
+                // resets the container so the next start() actually tries again
+                container.stop();
+            }
+
+            try {
+                Thread.sleep(retryInterval.toMillis());
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    @Override
+    public synchronized void stop() {
+        running = false;
+        if (subscriberThread != null) {
+            subscriberThread.interrupt();
+        }
+        container.stop();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        container.destroy();
+    }
+}
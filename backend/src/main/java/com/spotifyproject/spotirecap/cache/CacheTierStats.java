@@ -0,0 +1,111 @@
+package com.spotifyproject.spotirecap.cache;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// per-cache hit/miss counters for each tier plus stale-while-revalidate numbers, LongAdder so the hot path never contends on them
+public class CacheTierStats {
+
+    private final LongAdder l1Hits = new LongAdder();
+    private final LongAdder l1Misses = new LongAdder();
+    private final LongAdder l2Hits = new LongAdder();
+    private final LongAdder l2Misses = new LongAdder();
+    private final LongAdder l2Errors = new LongAdder();
+    private final LongAdder l2Unreadable = new LongAdder();
+    private final LongAdder staleServes = new LongAdder();
+    private final LongAdder staleIfErrorServes = new LongAdder();
+    private final LongAdder refreshes = new LongAdder();
+    private final LongAdder refreshFailures = new LongAdder();
+    private final LongAdder refreshNanosTotal = new LongAdder();
+    private final LongAccumulator refreshNanosMax = new LongAccumulator(Math::max, 0);
+
+    void recordL1Hit() {
+        l1Hits.increment();
+    }
+
+    void recordL1Miss() {
+        l1Misses.increment();
+    }
+
+    void recordL2Hit() {
+        l2Hits.increment();
+    }
+
+    void recordL2Miss() {
+        l2Misses.increment();
+    }
+
+    void recordL2Error() {
+        l2Errors.increment();
+    }
+
+    void recordL2Unreadable() {
+        l2Unreadable.increment();
+    }
+
+    void recordStaleServe() {
+        staleServes.increment();
+    }
+
+    void recordStaleIfErrorServe() {
+        staleIfErrorServes.increment();
+    }
+
+    void recordRefresh(long nanos) {
+        refreshes.increment();
+        refreshNanosTotal.add(nanos);
+        refreshNanosMax.accumulate(nanos);
+    }
+
+    void recordRefreshFailure() {
+        refreshFailures.increment();
+    }
+
+    public long getL1Hits() {
+        return l1Hits.sum();
+    }
+
+    public long getL1Misses() {
+        return l1Misses.sum();
+    }
+
+    public long getL2Hits() {
+        return l2Hits.sum();
+    }
+
+    public long getL2Misses() {
+        return l2Misses.sum();
+    }
+
+    public long getL2Errors() {
+        return l2Errors.sum();
+    }
+
+    public long getL2Unreadable() {
+        return l2Unreadable.sum();
+    }
+
+    public long getStaleServes() {
+        return staleServes.sum();
+    }
+
+    public long getStaleIfErrorServes() {
+        return staleIfErrorServes.sum();
+    }
+
+    public long getRefreshes() {
+        return refreshes.sum();
+    }
+
+    public long getRefreshFailures() {
+        return refreshFailures.sum();
+    }
+
+    public long getRefreshNanosTotal() {
+        return refreshNanosTotal.sum();
+    }
+
+    public long getRefreshNanosMax() {
+        return refreshNanosMax.get();
+    }
+}
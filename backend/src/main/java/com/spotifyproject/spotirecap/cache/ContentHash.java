@@ -0,0 +1,54 @@
+package com.spotifyproject.spotirecap.cache;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+// first 64 bits of a SHA-256 over a value's JSON. computed once when an entry is cached and carried along with it
+// (envelope + redis header), so it's the same on every node and can go out as an ETag without re-serializing anything
+public final class ContentHash {
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private ContentHash() {
+    }
+
+    public static long of(Object value) {
+        MessageDigest digest = sha256();
+        // the JSON is streamed straight into the digest, it's never held as a whole
+        try (OutputStream out = new DigestOutputStream(OutputStream.nullOutputStream(), digest)) {
+            objectMapper.writeValue(out, value);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Could not hash cache entry", e);
+        }
+        return ByteBuffer.wrap(digest.digest()).getLong();
+    }
+
+    // strong ETag, e.g. "\"1f3a9c0e5b7d2a41\""
+    public static String etag(long hash) {
+        return "\"" + String.format("%016x", hash) + "\"";
+    }
+
+    // ETag of one view of a cached value, e.g. its first 10 entries with 300px images -> "\"1f3a9c0e5b7d2a41-10-300\"".
+    // changes with the whole value even where the view didn't, which only costs a 200 where a 304 would have done.
+    // view has to be ETag-safe (no quotes)
+    public static String etag(long hash, String view) {
+        return "\"" + String.format("%016x", hash) + "-" + view + "\"";
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
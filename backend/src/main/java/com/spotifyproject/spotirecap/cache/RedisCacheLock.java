@@ -0,0 +1,58 @@
+package com.spotifyproject.spotirecap.cache;
+
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+
+// optional cross-node half of single-flight: one node loads a key while the others wait for it to show up in L2
+public class RedisCacheLock {
+
+    // only the owner may release, otherwise a slow loader could delete a lock some other node took after expiry
+    private static final DefaultRedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) else return 0 end",
+            Long.class);
+
+    private static final String LOCK_PREFIX = "spotirecap:lock:";
+
+    private final StringRedisTemplate redisTemplate;
+    private final Duration lockTtl;
+    private final Duration waitTimeout;
+    private final Duration pollInterval;
+
+    public RedisCacheLock(StringRedisTemplate redisTemplate, Duration lockTtl, Duration waitTimeout, Duration pollInterval) {
+        this.redisTemplate = redisTemplate;
+        this.lockTtl = lockTtl;
+        this.waitTimeout = waitTimeout;
+        this.pollInterval = pollInterval;
+    }
+
+    // returns the owner token when acquired, null when another node holds it
+    String tryAcquire(String cacheName, String key) {
+        String owner = UUID.randomUUID().toString();
+        Boolean acquired = redisTemplate.opsForValue().setIfAbsent(lockKey(cacheName, key), owner, lockTtl);
+        return Boolean.TRUE.equals(acquired) ? owner : null;
+    }
+
+    void release(String cacheName, String key, String owner) {
+        redisTemplate.execute(RELEASE_SCRIPT, List.of(lockKey(cacheName, key)), owner);
+    }
+
+    boolean isHeld(String cacheName, String key) {
+        return Boolean.TRUE.equals(redisTemplate.hasKey(lockKey(cacheName, key)));
+    }
+
+    Duration getWaitTimeout() {
+        return waitTimeout;
+    }
+
+    Duration getPollInterval() {
+        return pollInterval;
+    }
+
+    private String lockKey(String cacheName, String key) {
+        return LOCK_PREFIX + cacheName + ":" + key;
+    }
+}
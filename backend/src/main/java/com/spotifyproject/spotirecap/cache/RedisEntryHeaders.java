@@ -0,0 +1,30 @@
+package com.spotifyproject.spotirecap.cache;
+
+import org.springframework.data.redis.cache.RedisCache;
+import org.springframework.data.redis.cache.RedisCacheConfiguration;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.util.ByteUtils;
+
+// reads only the fixed-size header of a cached entry (GETRANGE), so its metadata is available without
+// transferring, gunzipping or deserializing the payload
+public class RedisEntryHeaders {
+
+    private final RedisConnectionFactory connectionFactory;
+
+    public RedisEntryHeaders(RedisConnectionFactory connectionFactory) {
+        this.connectionFactory = connectionFactory;
+    }
+
+    // empty when the key doesn't exist
+    byte[] read(RedisCache cache, String key) {
+        // same key layout the RedisCache itself writes to
+        RedisCacheConfiguration config = cache.getCacheConfiguration();
+        String redisKey = config.usePrefix() ? config.getKeyPrefixFor(cache.getName()) + key : key;
+        byte[] keyBytes = ByteUtils.getBytes(config.getKeySerializationPair().write(redisKey));
+
+        try (RedisConnection connection = connectionFactory.getConnection()) {
+            return connection.stringCommands().getRange(keyBytes, 0, VersionedJsonRedisSerializer.HEADER_SIZE - 1);
+        }
+    }
+}
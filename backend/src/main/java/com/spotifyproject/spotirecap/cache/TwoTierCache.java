@@ -0,0 +1,453 @@
+package com.spotifyproject.spotirecap.cache;
+
+import com.spotifyproject.spotirecap.logging.LogSampler;
+import com.spotifyproject.spotirecap.upstream.CircuitBreaker;
+
+import org.slf4j.LoggerFactory;
+import org.springframework.cache.Cache;
+import org.springframework.cache.support.SimpleValueWrapper;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.data.redis.cache.RedisCache;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Predicate;
+
+// in-process L1 (per node, small, short TTL) in front of the shared Redis L2.
+// entries past the soft TTL are still served, but trigger one background refresh. past the hard TTL they're reloaded,
+// but kept in redis a while longer (stale-if-error): if the reload fails because upstream is down, e.g. its breaker
+// is open, the expired entry is served instead of the error.
+// a failing L2 is a miss (reads) or skipped (writes), never an error: the cache keeps working on L1 alone, and once
+// connection errors or timeouts open the breaker it stops waiting on redis at all until the retry interval is up.
+// the same goes for the cross-node lock, which lives in redis too.
+// an L2 entry that can't be deserialized is a miss too, and is evicted so the next load rewrites it
+public class TwoTierCache implements Cache {
+
+    // shared by every cache, they all sit on the same redis
+    private static final LogSampler l2FailureLog = new LogSampler(LoggerFactory.getLogger(TwoTierCache.class), Duration.ofSeconds(30), 1);
+
+    private final String name;
+    private final Cache l1;
+    private final Cache l2;
+    private final CacheInvalidationPublisher invalidationPublisher;
+    private final RedisCacheLock cacheLock;
+    private final RedisEntryHeaders l2Headers;
+    private final CircuitBreaker l2Breaker;
+    private final Duration softTtl;
+    private final Duration hardTtl;
+    private final Predicate<Throwable> staleIfError;
+    private final Executor refreshExecutor;
+    private final CacheTierStats stats = new CacheTierStats();
+    private final SingleFlight<String, Object> singleFlight = new SingleFlight<>();
+    private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+
+    // cacheLock is optional, without it concurrent misses are only collapsed within this node.
+    // l2Headers is optional too, without it contentHash() reads the whole L2 entry.
+    // l2Breaker null = L2 is tried on every call however often it fails.
+    // softTtl null = entries never go stale before they expire.
+    // hardTtl null = entries are valid until redis expires them, so there's nothing to serve when a load fails.
+    // staleIfError picks the load failures an expired entry may be served for, null = none
+    public TwoTierCache(String name, Cache l1, Cache l2, CacheInvalidationPublisher invalidationPublisher,
+                        RedisCacheLock cacheLock, RedisEntryHeaders l2Headers, CircuitBreaker l2Breaker,
+                        Duration softTtl, Duration hardTtl, Predicate<Throwable> staleIfError, Executor refreshExecutor) {
+        this.name = name;
+        this.l1 = l1;
+        this.l2 = l2;
+        this.invalidationPublisher = invalidationPublisher;
+        this.cacheLock = cacheLock;
+        this.l2Headers = l2Headers;
+        this.l2Breaker = l2Breaker;
+        this.softTtl = softTtl;
+        this.hardTtl = hardTtl;
+        this.staleIfError = staleIfError;
+        this.refreshExecutor = refreshExecutor;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public Object getNativeCache() {
+        return this;
+    }
+
+    public CacheTierStats getStats() {
+        return stats;
+    }
+
+    // distinct keys currently being loaded from upstream on this node
+    public int getInFlightLoads() {
+        return singleFlight.inFlightCount();
+    }
+
+    @Override
+    public ValueWrapper get(Object key) {
+        CacheEnvelope envelope = lookup(String.valueOf(key));
+        return envelope != null && !isExpired(envelope) ? new SimpleValueWrapper(envelope.value()) : null;
+    }
+
+    private CacheEnvelope lookup(String cacheKey) {
+        ValueWrapper l1Value = l1.get(cacheKey);
+        if (l1Value != null) {
+            stats.recordL1Hit();
+            return envelope(l1Value.get());
+        }
+        stats.recordL1Miss();
+
+        if (!l2Available()) {
+            return null;
+        }
+        ValueWrapper l2Value;
+        try {
+            l2Value = readL2(cacheKey);
+            l2Succeeded();
+        }
+        catch (RuntimeException e) {
+            l2Failed("get", e);
+            return null;
+        }
+        if (l2Value != null) {
+            stats.recordL2Hit();
+            CacheEnvelope envelope = envelope(l2Value.get());
+            // only fills this node's L1, nothing changed so no need to tell the other nodes
+            l1.put(cacheKey, envelope);
+            return envelope;
+        }
+        stats.recordL2Miss();
+
+        return null;
+    }
+
+    // the cached entry's content hash without deserializing it: L1 keeps it on the envelope, from redis only the
+    // header is read. null when the key isn't cached, or is past its soft TTL so a regular get() gets to refresh it.
+    // doesn't count as a get in the tier stats
+    public Long contentHash(Object key) {
+        return contentHash(key, true);
+    }
+
+    // same, stale entries included. what a get() right now would be served
+    public Long currentContentHash(Object key) {
+        return contentHash(key, false);
+    }
+
+    private Long contentHash(Object key, boolean freshOnly) {
+        String cacheKey = String.valueOf(key);
+        ValueWrapper l1Value = l1.get(cacheKey);
+        if (l1Value != null) {
+            CacheEnvelope envelope = envelope(l1Value.get());
+            return hashIf(freshOnly, envelope.writtenAt(), envelope.contentHash());
+        }
+
+        if (!l2Available()) {
+            return null;
+        }
+        try {
+            Long hash = l2ContentHash(cacheKey, freshOnly);
+            l2Succeeded();
+            return hash;
+        }
+        catch (RuntimeException e) {
+            l2Failed("header read", e);
+            return null;
+        }
+    }
+
+    private Long l2ContentHash(String cacheKey, boolean freshOnly) {
+        if (l2Headers != null && l2 instanceof RedisCache redisCache) {
+            byte[] header = l2Headers.read(redisCache, cacheKey);
+            return VersionedJsonRedisSerializer.isCurrentFormat(header)
+                    ? hashIf(freshOnly, VersionedJsonRedisSerializer.writtenAt(header), VersionedJsonRedisSerializer.contentHash(header))
+                    : null;
+        }
+        ValueWrapper l2Value = readL2(cacheKey);
+        if (l2Value == null) {
+            return null;
+        }
+        CacheEnvelope envelope = envelope(l2Value.get());
+        return hashIf(freshOnly, envelope.writtenAt(), envelope.contentHash());
+    }
+
+    private Long hashIf(boolean freshOnly, long writtenAt, long contentHash) {
+        long age = System.currentTimeMillis() - writtenAt;
+        if (hardTtl != null && age > hardTtl.toMillis()) {
+            // a get() would reload it
+            return null;
+        }
+        boolean stale = softTtl != null && age > softTtl.toMillis();
+        return freshOnly && stale ? null : contentHash;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object key, Class<T> type) {
+        ValueWrapper value = get(key);
+        if (value == null || value.get() == null) {
+            return null;
+        }
+        if (type != null && !type.isInstance(value.get())) {
+            throw new IllegalStateException("Cached value is not of required type [" + type.getName() + "]: " + value.get());
+        }
+        return (T) value.get();
+    }
+
+    // this is what @Cacheable(sync = true) calls, concurrent misses on one key share a single load
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object key, Callable<T> valueLoader) {
+        String cacheKey = String.valueOf(key);
+
+        CacheEnvelope cached = lookup(cacheKey);
+        if (cached != null && !isExpired(cached)) {
+            if (softTtl != null && cached.isOlderThan(softTtl)) {
+                stats.recordStaleServe();
+                scheduleRefresh(cacheKey, valueLoader);
+            }
+            return (T) cached.value();
+        }
+
+        try {
+            return (T) singleFlight.execute(cacheKey, () -> load(cacheKey, valueLoader));
+        }
+        catch (Exception e) {
+            if (cached != null && staleIfError != null && causedBy(e, staleIfError)) {
+                stats.recordStaleIfErrorServe();
+                return (T) cached.value();
+            }
+            throw new ValueRetrievalException(key, valueLoader, e);
+        }
+    }
+
+    private boolean isExpired(CacheEnvelope envelope) {
+        return hardTtl != null && envelope.isOlderThan(hardTtl);
+    }
+
+    // the loader's exception usually comes wrapped, by @Cacheable's invoker at least
+    private static boolean causedBy(Throwable e, Predicate<Throwable> matches) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (matches.test(cause)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Object load(String cacheKey, Callable<?> valueLoader) throws Exception {
+        // the previous flight for this key may have landed between our miss and joining this one
+        ValueWrapper justLoaded = l1.get(cacheKey);
+        if (justLoaded != null && !isExpired(envelope(justLoaded.get()))) {
+            return envelope(justLoaded.get()).value();
+        }
+
+        // the lock lives in redis too, nothing to coordinate through while it's down
+        if (cacheLock == null || !l2Available()) {
+            return loadAndPut(cacheKey, valueLoader);
+        }
+
+        String owner;
+        try {
+            owner = cacheLock.tryAcquire(name, cacheKey);
+            l2Succeeded();
+        }
+        catch (RuntimeException e) {
+            // no lock available means no cross-node dedup, still fine to load locally
+            l2Failed("lock", e);
+            return loadAndPut(cacheKey, valueLoader);
+        }
+
+        if (owner != null) {
+            try {
+                return loadAndPut(cacheKey, valueLoader);
+            }
+            finally {
+                releaseLock(cacheKey, owner);
+            }
+        }
+
+        // another node is already loading this key, wait for its result to show up in L2
+        long deadline = System.nanoTime() + cacheLock.getWaitTimeout().toNanos();
+        while (System.nanoTime() < deadline && l2Available()) {
+            Thread.sleep(cacheLock.getPollInterval().toMillis());
+
+            CacheEnvelope loadedElsewhere = null;
+            boolean stillLoading;
+            try {
+                ValueWrapper l2Value = readL2(cacheKey);
+                if (l2Value != null && !isExpired(envelope(l2Value.get()))) {
+                    loadedElsewhere = envelope(l2Value.get());
+                }
+                stillLoading = loadedElsewhere == null && cacheLock.isHeld(name, cacheKey);
+                l2Succeeded();
+            }
+            catch (RuntimeException e) {
+                l2Failed("lock wait", e);
+                break;
+            }
+            if (loadedElsewhere != null) {
+                l1.put(cacheKey, loadedElsewhere);
+                return loadedElsewhere.value();
+            }
+            if (!stillLoading) {
+                break;
+            }
+        }
+
+        // the other node gave up or failed, load it ourselves
+        return loadAndPut(cacheKey, valueLoader);
+    }
+
+    // a lock that can't be released expires after its TTL anyway, that's no reason to fail a load that worked
+    private void releaseLock(String cacheKey, String owner) {
+        try {
+            cacheLock.release(name, cacheKey, owner);
+            l2Succeeded();
+        }
+        catch (RuntimeException e) {
+            l2Failed("lock release", e);
+        }
+    }
+
+    private Object loadAndPut(String cacheKey, Callable<?> valueLoader) throws Exception {
+        Object value = valueLoader.call();
+        put(cacheKey, value);
+        return value;
+    }
+
+    // at most one refresh per key at a time; if the refresh pool is full we just try again on a later stale hit
+    private void scheduleRefresh(String cacheKey, Callable<?> valueLoader) {
+        if (refreshExecutor == null || !refreshing.add(cacheKey)) {
+            return;
+        }
+
+        try {
+            refreshExecutor.execute(() -> {
+                long start = System.nanoTime();
+                try {
+                    singleFlight.execute(cacheKey, () -> loadAndPut(cacheKey, valueLoader));
+                    stats.recordRefresh(System.nanoTime() - start);
+                }
+                catch (Exception e) {
+                    // the stale value stays until its hard TTL, the next stale hit tries again
+                    stats.recordRefreshFailure();
+                }
+                finally {
+                    refreshing.remove(cacheKey);
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            refreshing.remove(cacheKey);
+        }
+    }
+
+    // redis answered, but with bytes this node can't read (a record changed shape without a format bump, a corrupt
+    // entry). that's a miss, not a redis failure, so it stays out of the breaker; evicted from L2 only, other nodes'
+    // L1 copies are fine
+    private ValueWrapper readL2(String cacheKey) {
+        try {
+            return l2.get(cacheKey);
+        }
+        catch (SerializationException e) {
+            stats.recordL2Unreadable();
+            l2FailureLog.warn("unreadable L2 entry evicted", name, e);
+            writeL2("evict", () -> l2.evict(cacheKey));
+            return null;
+        }
+    }
+
+    private static CacheEnvelope envelope(Object stored) {
+        // anything written before envelopes existed counts as freshly loaded
+        return stored instanceof CacheEnvelope envelope ? envelope : CacheEnvelope.of(stored);
+    }
+
+    @Override
+    public void put(Object key, Object value) {
+        String cacheKey = String.valueOf(key);
+        CacheEnvelope envelope = CacheEnvelope.of(value);
+        writeL2("put", () -> l2.put(cacheKey, envelope));
+        l1.put(cacheKey, envelope);
+        invalidationPublisher.publishEvict(name, cacheKey);
+    }
+
+    @Override
+    public ValueWrapper putIfAbsent(Object key, Object value) {
+        ValueWrapper existing = get(key);
+        if (existing != null) {
+            return existing;
+        }
+        put(key, value);
+        return null;
+    }
+
+    @Override
+    public void evict(Object key) {
+        String cacheKey = String.valueOf(key);
+        writeL2("evict", () -> l2.evict(cacheKey));
+        l1.evict(cacheKey);
+        invalidationPublisher.publishEvict(name, cacheKey);
+    }
+
+    @Override
+    public void clear() {
+        writeL2("clear", l2::clear);
+        l1.clear();
+        invalidationPublisher.publishClear(name);
+    }
+
+    // a write that doesn't make it to redis only lives in this node's L1, other nodes load their own
+    private void writeL2(String operation, Runnable write) {
+        if (!l2Available()) {
+            return;
+        }
+        try {
+            write.run();
+            l2Succeeded();
+        }
+        catch (RuntimeException e) {
+            l2Failed(operation, e);
+        }
+    }
+
+    private boolean l2Available() {
+        return l2Breaker == null || l2Breaker.allowRequest();
+    }
+
+    private void l2Succeeded() {
+        if (l2Breaker != null) {
+            l2Breaker.recordSuccess();
+        }
+    }
+
+    // only a redis that can't be reached or doesn't answer in time counts towards the breaker, a command that fails
+    // on its own is logged and counted but doesn't take L2 away from every other key. either way the breaker hears
+    // about it, the call may have been its half-open probe
+    private void l2Failed(String operation, RuntimeException e) {
+        stats.recordL2Error();
+        boolean unreachable = e instanceof DataAccessResourceFailureException || e instanceof QueryTimeoutException;
+        if (l2Breaker != null && unreachable) {
+            l2Breaker.recordFailure();
+        }
+        else {
+            // redis answered
+            l2Succeeded();
+        }
+        l2FailureLog.warn("L2 " + operation + " failed, serving from L1", name, e);
+    }
+
+    // called when another node changed an entry, the L2 copy is already current
+    void invalidateLocal(String key) {
+        if (key == null) {
+            l1.clear();
+        }
+        else {
+            l1.evict(key);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.spotifyproject.spotirecap.cache;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.spotifyproject.spotirecap.upstream.CircuitBreaker;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.caffeine.CaffeineCache;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+// hands out a TwoTierCache per cache name, the L2 side comes from the given (redis) cache manager.
+// also a MeterBinder: every cache's tier stats show up as cache.* meters tagged with the cache name
+public class TwoTierCacheManager implements CacheManager, MeterBinder {
+
+    private final CacheManager l2CacheManager;
+    private final CacheInvalidationPublisher invalidationPublisher;
+    private final RedisCacheLock cacheLock;
+    private final RedisEntryHeaders l2Headers;
+    private final CircuitBreaker l2Breaker;
+    private final long l1MaxSize;
+    private final Duration l1Ttl;
+    private final Map<String, Duration> softTtls;
+    private final Map<String, Duration> hardTtls;
+    private final Predicate<Throwable> staleIfError;
+    private final Executor refreshExecutor;
+
+    private final ConcurrentMap<String, TwoTierCache> caches = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, CaffeineCache> l1Caches = new ConcurrentHashMap<>();
+    private volatile MeterRegistry meterRegistry;
+
+    public TwoTierCacheManager(CacheManager l2CacheManager, CacheInvalidationPublisher invalidationPublisher,
+                               RedisCacheLock cacheLock, RedisEntryHeaders l2Headers, CircuitBreaker l2Breaker,
+                               long l1MaxSize, Duration l1Ttl, Map<String, Duration> softTtls,
+                               Map<String, Duration> hardTtls, Predicate<Throwable> staleIfError, Executor refreshExecutor) {
+        this.l2CacheManager = l2CacheManager;
+        this.invalidationPublisher = invalidationPublisher;
+        this.cacheLock = cacheLock;
+        this.l2Headers = l2Headers;
+        this.l2Breaker = l2Breaker;
+        this.l1MaxSize = l1MaxSize;
+        this.l1Ttl = l1Ttl;
+        this.softTtls = softTtls;
+        this.hardTtls = hardTtls;
+        this.staleIfError = staleIfError;
+        this.refreshExecutor = refreshExecutor;
+
+        invalidationPublisher.setInvalidationHandler((cacheName, key) -> {
+            TwoTierCache cache = caches.get(cacheName);
+            if (cache != null) {
+                cache.invalidateLocal(key);
+            }
+        });
+    }
+
+    @Override
+    public Cache getCache(String name) {
+        return caches.computeIfAbsent(name, this::createCache);
+    }
+
+    @Override
+    public Collection<String> getCacheNames() {
+        return Collections.unmodifiableSet(caches.keySet());
+    }
+
+    public Map<String, CacheTierStats> getStats() {
+        Map<String, CacheTierStats> stats = new TreeMap<>();
+        caches.forEach((name, cache) -> stats.put(name, cache.getStats()));
+        return stats;
+    }
+
+    // caches are created on first use, the ones that don't exist yet get their meters in createCache
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        this.meterRegistry = registry;
+        if (l2Breaker != null) {
+            // one redis behind every cache, so one breaker for all of them
+            Gauge.builder("cache.l2.available", l2Breaker, breaker -> breaker.getState() == CircuitBreaker.State.CLOSED ? 1 : 0)
+                    .description("1 while the caches use redis, 0 while they run on L1 alone")
+                    .register(registry);
+        }
+        caches.values().forEach(cache -> bindMetrics(cache, registry));
+    }
+
+    private TwoTierCache createCache(String name) {
+        Cache l2 = l2CacheManager.getCache(name);
+        if (l2 == null) {
+            throw new IllegalStateException("No L2 cache configured for " + name);
+        }
+
+        // bounded by size and TTL, the TTL also caps how stale a node can be if an invalidation message is lost
+        CaffeineCache l1 = new CaffeineCache(name, Caffeine.newBuilder()
+                .maximumSize(l1MaxSize)
+                .expireAfterWrite(l1Ttl)
+                .recordStats()
+                .build());
+        l1Caches.put(name, l1);
+
+        TwoTierCache cache = new TwoTierCache(name, l1, l2, invalidationPublisher, cacheLock, l2Headers, l2Breaker,
+                softTtls.get(name), hardTtls.get(name), staleIfError, refreshExecutor);
+
+        MeterRegistry registry = meterRegistry;
+        if (registry != null) {
+            bindMetrics(cache, registry);
+        }
+        return cache;
+    }
+
+    private void bindMetrics(TwoTierCache cache, MeterRegistry registry) {
+        String name = cache.getName();
+        CacheTierStats stats = cache.getStats();
+
+        tierCounter(registry, name, "l1", "hit", stats, CacheTierStats::getL1Hits);
+        tierCounter(registry, name, "l1", "miss", stats, CacheTierStats::getL1Misses);
+        tierCounter(registry, name, "l2", "hit", stats, CacheTierStats::getL2Hits);
+        tierCounter(registry, name, "l2", "miss", stats, CacheTierStats::getL2Misses);
+        tierCounter(registry, name, "l2", "error", stats, CacheTierStats::getL2Errors);
+        // already counted as l2 misses, this is how many of them were entries that couldn't be read and got evicted
+        FunctionCounter.builder("cache.l2.unreadable", stats, CacheTierStats::getL2Unreadable)
+                .description("L2 entries that failed to deserialize and were evicted")
+                .tag("cache", name)
+                .register(registry);
+
+        CaffeineCache l1 = l1Caches.get(name);
+        if (l1 != null) {
+            FunctionCounter.builder("cache.evictions", l1, c -> c.getNativeCache().stats().evictionCount())
+                    .description("L1 entries dropped for size or TTL")
+                    .tags("cache", name, "tier", "l1")
+                    .register(registry);
+            Gauge.builder("cache.size", l1, c -> c.getNativeCache().estimatedSize())
+                    .tags("cache", name, "tier", "l1")
+                    .register(registry);
+        }
+
+        FunctionCounter.builder("cache.stale.serves", stats, CacheTierStats::getStaleServes)
+                .description("Entries served past their soft TTL while a refresh runs")
+                .tag("cache", name)
+                .register(registry);
+        FunctionCounter.builder("cache.stale.if.error.serves", stats, CacheTierStats::getStaleIfErrorServes)
+                .description("Expired entries served because reloading them failed with upstream down")
+                .tag("cache", name)
+                .register(registry);
+        FunctionCounter.builder("cache.refresh.failures", stats, CacheTierStats::getRefreshFailures)
+                .tag("cache", name)
+                .register(registry);
+        FunctionTimer.builder("cache.refresh", stats, CacheTierStats::getRefreshes,
+                        CacheTierStats::getRefreshNanosTotal, TimeUnit.NANOSECONDS)
+                .description("Background stale-while-revalidate refreshes")
+                .tag("cache", name)
+                .register(registry);
+        TimeGauge.builder("cache.refresh.max", stats, TimeUnit.NANOSECONDS, CacheTierStats::getRefreshNanosMax)
+                .description("Slowest background refresh since startup")
+                .tag("cache", name)
+                .register(registry);
+        Gauge.builder("cache.loads.inflight", cache, TwoTierCache::getInFlightLoads)
+                .description("Keys currently being loaded from upstream on this node")
+                .tag("cache", name)
+                .register(registry);
+    }
+
+    private static void tierCounter(MeterRegistry registry, String cacheName, String tier, String result,
+                                    CacheTierStats stats, ToLongFunction<CacheTierStats> count) {
+        FunctionCounter.builder("cache.gets", stats, count::applyAsLong)
+                .tags("cache", cacheName, "tier", tier, "result", result)
+                .register(registry);
+    }
+}
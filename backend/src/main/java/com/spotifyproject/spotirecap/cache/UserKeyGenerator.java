@@ -0,0 +1,35 @@
+package com.spotifyproject.spotirecap.cache;
+
+import com.spotifyproject.spotirecap.service.SpotifyUserService;
+
+import org.springframework.cache.interceptor.KeyGenerator;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.StringJoiner;
+
+// keys a cache by the spotify user id behind the access token (first param) plus the remaining params,
+// e.g. getTopTracksSnapshot(token, "long_term") -> "31abcxyz_long_term"
+public class UserKeyGenerator implements KeyGenerator {
+
+    private final SpotifyUserService spotifyUserService;
+
+    public UserKeyGenerator(SpotifyUserService spotifyUserService) {
+        this.spotifyUserService = spotifyUserService;
+    }
+
+    @Override
+    public Object generate(Object target, Method method, Object... params) {
+        return userKey((String) params[0], Arrays.copyOfRange(params, 1, params.length));
+    }
+
+    // also used directly for anything else that has to line up with the cache keys (e.g. ETags)
+    public String userKey(String accessToken, Object... parts) {
+        StringJoiner key = new StringJoiner("_");
+        key.add(spotifyUserService.getProfile(accessToken).id());
+        for (Object part : parts) {
+            key.add(String.valueOf(part));
+        }
+        return key.toString();
+    }
+}
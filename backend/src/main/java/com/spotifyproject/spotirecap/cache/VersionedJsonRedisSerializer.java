@@ -0,0 +1,103 @@
+package com.spotifyproject.spotirecap.cache;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// a CacheEnvelope holding one cache's value type, as typed JSON behind a fixed header:
+// [format version][flags][writtenAt, 8 bytes][contentHash, 8 bytes], flags bit 0 = payload is gzipped (only past
+// the threshold, small entries aren't worth it). the header can be read without touching the payload
+public class VersionedJsonRedisSerializer implements RedisSerializer<Object> {
+
+    // bump this whenever a cached record or the header changes shape, old entries then just read as misses
+    public static final byte FORMAT_VERSION = 6;
+
+    private static final byte FLAG_GZIP = 0x1;
+    static final int HEADER_SIZE = 18;
+
+    private final ObjectMapper objectMapper;
+    private final JavaType type;
+    private final int compressionThreshold;
+
+    public VersionedJsonRedisSerializer(ObjectMapper objectMapper, JavaType type, int compressionThreshold) {
+        this.objectMapper = objectMapper;
+        this.type = type;
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    @Override
+    public byte[] serialize(Object value) throws SerializationException {
+        if (value == null) {
+            return new byte[0];
+        }
+        CacheEnvelope envelope = value instanceof CacheEnvelope cacheEnvelope ? cacheEnvelope : CacheEnvelope.of(value);
+
+        try {
+            byte[] json = objectMapper.writerFor(type).writeValueAsBytes(envelope.value());
+            boolean compress = json.length >= compressionThreshold;
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream(json.length / (compress ? 4 : 1) + HEADER_SIZE);
+            DataOutputStream header = new DataOutputStream(out);
+            header.writeByte(FORMAT_VERSION);
+            header.writeByte(compress ? FLAG_GZIP : 0);
+            header.writeLong(envelope.writtenAt());
+            header.writeLong(envelope.contentHash());
+
+            if (compress) {
+                try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+                    gzip.write(json);
+                }
+            }
+            else {
+                out.write(json);
+            }
+            return out.toByteArray();
+        }
+        catch (IOException e) {
+            throw new SerializationException("Could not write cache entry as " + type, e);
+        }
+    }
+
+    @Override
+    public CacheEnvelope deserialize(byte[] bytes) throws SerializationException {
+        if (!isCurrentFormat(bytes)) {
+            return null;
+        }
+
+        try {
+            InputStream in = new ByteArrayInputStream(bytes, HEADER_SIZE, bytes.length - HEADER_SIZE);
+            if ((bytes[1] & FLAG_GZIP) != 0) {
+                in = new GZIPInputStream(in);
+            }
+            try (InputStream payload = in) {
+                return new CacheEnvelope(objectMapper.readValue(payload, type), writtenAt(bytes), contentHash(bytes));
+            }
+        }
+        catch (IOException e) {
+            throw new SerializationException("Could not read cache entry as " + type, e);
+        }
+    }
+
+    static boolean isCurrentFormat(byte[] bytes) {
+        return bytes != null && bytes.length >= HEADER_SIZE && bytes[0] == FORMAT_VERSION;
+    }
+
+    static long writtenAt(byte[] bytes) {
+        return ByteBuffer.wrap(bytes, 2, 8).getLong();
+    }
+
+    static long contentHash(byte[] bytes) {
+        return ByteBuffer.wrap(bytes, 10, 8).getLong();
+    }
+}
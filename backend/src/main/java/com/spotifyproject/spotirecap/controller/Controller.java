@@ -1,13 +1,43 @@
 package com.spotifyproject.spotirecap.controller;
 
+import com.spotifyproject.spotirecap.history.HistoryKind;
+import com.spotifyproject.spotirecap.image.ImageProxyCache;
+import com.spotifyproject.spotirecap.model.RankMovement;
+import com.spotifyproject.spotirecap.model.TokenGrant;
+import com.spotifyproject.spotirecap.model.TopArtist;
+import com.spotifyproject.spotirecap.model.TopGenre;
+import com.spotifyproject.spotirecap.model.TopTrack;
+import com.spotifyproject.spotirecap.service.CacheWarmupService;
+import com.spotifyproject.spotirecap.service.ListeningHistoryService;
+import com.spotifyproject.spotirecap.service.RecapEtagService;
+import com.spotifyproject.spotirecap.service.RecapService;
 import com.spotifyproject.spotirecap.service.SpotifyService;
+import com.spotifyproject.spotirecap.service.SpotifySnapshotService;
+import com.spotifyproject.spotirecap.service.SpotifyTokenManager;
+import com.spotifyproject.spotirecap.share.SharedRecapStore;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.core.io.FileSystemResource;
 import org.springframework.http.*;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.client.HttpClientErrorException;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.zip.GZIPInputStream;
 
+// everything that may wait on spotify returns a Callable: spring runs it on the upstreamRequestExecutor (ExecutorConfig)
+// and hands the tomcat thread back right away, so a slow spotify fills that bounded pool instead of tomcat's.
+// the endpoints that never go upstream (/test, /share/{id}) answer on the request thread. nothing is caught here,
+// GlobalExceptionHandler turns what's thrown into the response status
 @RestController
 @RequestMapping("/api")
 public class Controller {
@@ -15,122 +45,438 @@ public class Controller {
     @Autowired
     private SpotifyService spotifyService;
 
+    @Autowired
+    private RecapService recapService;
+
+    @Autowired
+    private SpotifyTokenManager spotifyTokenManager;
+
+    @Autowired
+    private RecapEtagService recapEtagService;
+
+    @Autowired
+    private ListeningHistoryService listeningHistoryService;
+
+    @Autowired
+    private CacheWarmupService cacheWarmupService;
+
+    @Autowired
+    private ImageProxyCache imageProxyCache;
+
+    @Autowired
+    private SharedRecapStore sharedRecapStore;
+
+    // a shared recap never changes under its id, browsers and CDNs can keep it as long as they like
+    @Value("${share.max-age:365d}")
+    private Duration shareMaxAge;
+
+    @Value("${image.proxy.max-age:365d}")
+    private Duration imageMaxAge;
+
+    // how long a browser may reuse a recap list without asking again, past that it revalidates with If-None-Match
+    @Value("${http.recap.max-age:0s}")
+    private Duration recapMaxAge;
+
     @GetMapping("/test")
     public String sendResponse() {
         return "valid";
     }
 
     @PostMapping("/auth/token")
-    public ResponseEntity<?> getAccessToken(@RequestBody Map<String, String> body) {
-        try {
+    public Callable<ResponseEntity<?>> getAccessToken(@RequestBody Map<String, String> body) {
+        return () -> {
             String code = body.get("code");
             if(code == null || code.isBlank()) {
                 return ResponseEntity.badRequest().body(Map.of("error", "Missing code in body"));
             }
 
-            Map<String, String> tokenResults = spotifyService.getAccessToken(code);
+            TokenGrant grant = spotifyTokenManager.exchangeCode(code);
+            cacheWarmupService.recordSignIn("Bearer " + grant.accessToken(), grant.refreshToken());
+
+            Map<String, Object> tokenResults = new HashMap<>();
+            tokenResults.put("access_token", grant.accessToken());
+            tokenResults.put("refresh_token", grant.refreshToken());
+            tokenResults.put("expires_in", grant.expiresIn(System.currentTimeMillis()));
             return ResponseEntity.ok(tokenResults);
-        }
-        catch(Exception e) {
-            e.printStackTrace();
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of("error", "Internal server error"));
-        }
+        };
     }
 
+    // usually answered from the token cache, expires_in is what's left of the (possibly shared) token
     @PostMapping("/auth/refresh")
-    public ResponseEntity<?> refreshAccessToken(@RequestBody Map<String, String> body) {
-        try {
-            String tokenEndpoint = "https://accounts.spotify.com/api/token";
+    public Callable<ResponseEntity<?>> refreshAccessToken(@RequestBody Map<String, String> body) {
+        return () -> {
             String refreshToken = body.get("refresh_token");
             if (refreshToken == null || refreshToken.isBlank()) {
                 return ResponseEntity.badRequest().body(Map.of("error", "Missing refresh_token in body"));
             }
 
-            Map refreshedTokenResults = spotifyService.refreshAccessToken(refreshToken);
+            TokenGrant grant = spotifyTokenManager.getAccessToken(refreshToken);
+            cacheWarmupService.recordSignIn("Bearer " + grant.accessToken(), grant.refreshToken());
+
+            Map<String, Object> refreshedTokenResults = new HashMap<>();
+            refreshedTokenResults.put("access_token", grant.accessToken());
+            refreshedTokenResults.put("token_type", "Bearer");
+            refreshedTokenResults.put("expires_in", grant.expiresIn(System.currentTimeMillis()));
+            // only when spotify rotated it, the client has to swap its stored one then
+            if (!refreshToken.equals(grant.refreshToken())) {
+                refreshedTokenResults.put("refresh_token", grant.refreshToken());
+            }
             return ResponseEntity.ok(refreshedTokenResults);
-        }
-        catch(Exception e) {
-            e.printStackTrace();
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of("error", "Internal server error"));
-        }
+        };
     }
 
     @GetMapping("/top-tracks")
-    public ResponseEntity<?> getTopTracks(
+    public Callable<ResponseEntity<?>> getTopTracks(
             @RequestHeader("Authorization") String accessToken,
             @RequestParam(name = "timeRange", defaultValue = "long_term") String timeRange,
-            @RequestParam(name = "amount", defaultValue = "10") String amount
+            @RequestParam(name = "amount", defaultValue = "10") String amount,
+            @RequestParam(name = "imageSize", required = false) String imageSize,
+            @RequestHeader(name = "If-None-Match", required = false) String ifNoneMatch
     ) {
-        try {
-            if (accessToken == null || !accessToken.startsWith("Bearer ")) {
-                return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("error", "Invalid access token"));
+        return () -> {
+            ResponseEntity<?> rejected = rejectListRequest(accessToken, amount, imageSize);
+            if (rejected != null) {
+                return rejected;
             }
+            Integer displaySize = parseImageSize(imageSize);
 
-            List<Map<String, String>> topTracks = spotifyService.getTopTracks(accessToken, timeRange, amount);
-            return ResponseEntity.ok(topTracks);
-        }
-        catch(Exception e) {
-            e.printStackTrace();
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of("error", "Internal server error"));
-        }
+            // a repeat visit with nothing new is answered from the cache entry's stored hash alone
+            String cacheKey = recapEtagService.cacheKey(accessToken, timeRange);
+            String unchanged = recapEtagService.matchingEtag("topTracks", cacheKey, amount, displaySize, ifNoneMatch);
+            if (unchanged != null) {
+                return notModified(unchanged);
+            }
+
+            RecapEtagService.Tagged<List<TopTrack>> topTracks = recapEtagService.load("topTracks", cacheKey, amount, displaySize,
+                    () -> spotifyService.getTopTracks(accessToken, timeRange, amount, displaySize));
+            return cacheableOk(topTracks.etag(), topTracks.body());
+        };
     }
 
     @GetMapping("/top-artists")
-    public ResponseEntity<?> getTopArtists(
+    public Callable<ResponseEntity<?>> getTopArtists(
             @RequestHeader("Authorization") String accessToken,
             @RequestParam(name = "timeRange", defaultValue = "long_term") String timeRange,
-            @RequestParam(name = "amount", defaultValue = "10") String amount
+            @RequestParam(name = "amount", defaultValue = "10") String amount,
+            @RequestParam(name = "imageSize", required = false) String imageSize,
+            @RequestHeader(name = "If-None-Match", required = false) String ifNoneMatch
     ) {
-        try  {
-            String topArtistsEndpoint = "https://api.spotify.com/v1/me/top/artists?limit=" + amount + "&time_range=" + timeRange;
+        return () -> {
+            ResponseEntity<?> rejected = rejectListRequest(accessToken, amount, imageSize);
+            if (rejected != null) {
+                return rejected;
+            }
+            Integer displaySize = parseImageSize(imageSize);
 
-            if (accessToken == null || !accessToken.startsWith("Bearer ")) {
-                return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("error", "Invalid access token"));
+            // a repeat visit with nothing new is answered from the cache entry's stored hash alone
+            String cacheKey = recapEtagService.cacheKey(accessToken, timeRange);
+            String unchanged = recapEtagService.matchingEtag("artistSnapshots", cacheKey, amount, displaySize, ifNoneMatch);
+            if (unchanged != null) {
+                return notModified(unchanged);
             }
 
-            List<Map<String, Object>> topArtists = spotifyService.getTopArtists(accessToken, timeRange, amount);
-            return ResponseEntity.ok(topArtists);
-        }
-        catch(Exception e) {
-            e.printStackTrace();
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of("error", "Internal server error"));
-        }
+            RecapEtagService.Tagged<List<TopArtist>> topArtists = recapEtagService.load("artistSnapshots", cacheKey, amount, displaySize,
+                    () -> spotifyService.getTopArtists(accessToken, timeRange, amount, displaySize));
+            return cacheableOk(topArtists.etag(), topArtists.body());
+        };
     }
 
+    // timeRange=all (genres only) merges short, medium and long term
     @GetMapping("/top-genres")
-    // @TODO double work of calling /top/artists endpoint, refactor
-    public ResponseEntity<?> getTopGenres(
+    public Callable<ResponseEntity<?>> getTopGenres(
             @RequestHeader("Authorization") String accessToken,
             @RequestParam(name = "timeRange", defaultValue = "long_term") String timeRange,
-            @RequestParam(name = "amount", defaultValue = "10") String amount
+            @RequestParam(name = "amount", defaultValue = "10") String amount,
+            @RequestParam(name = "imageSize", required = false) String imageSize,
+            @RequestHeader(name = "If-None-Match", required = false) String ifNoneMatch
     ) {
-        try {
-            if(accessToken == null || !accessToken.startsWith(("Bearer "))) {
-                return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("error", "Invalid access token"));
+        return () -> {
+            ResponseEntity<?> rejected = rejectListRequest(accessToken, amount, imageSize);
+            if (rejected != null) {
+                return rejected;
             }
+            Integer displaySize = parseImageSize(imageSize);
 
-            List<Map<String, Object>> topGenres = spotifyService.getTopGenres(accessToken, timeRange, amount);
-            return ResponseEntity.ok(topGenres);
-        }
-        catch(Exception e) {
-            e.printStackTrace();
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of("error", "Internal server error"));
-        }
+            // a repeat visit with nothing new is answered from the cache entry's stored hash alone
+            String cacheKey = recapEtagService.cacheKey(accessToken, timeRange);
+            String unchanged = recapEtagService.matchingEtag("topGenres", cacheKey, amount, displaySize, ifNoneMatch);
+            if (unchanged != null) {
+                return notModified(unchanged);
+            }
+
+            RecapEtagService.Tagged<List<TopGenre>> topGenres = recapEtagService.load("topGenres", cacheKey, amount, displaySize,
+                    () -> spotifyService.getTopGenres(accessToken, timeRange, amount, displaySize));
+            return cacheableOk(topGenres.etag(), topGenres.body());
+        };
     }
 
     @GetMapping("/user")
-    public ResponseEntity<?> getUserName(@RequestHeader("Authorization") String accessToken) {
-        try {
-            if(accessToken == null || !accessToken.startsWith("Bearer ")) {
-                return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("error", "Invalid access token"));
+    public Callable<ResponseEntity<?>> getUserName(@RequestHeader("Authorization") String accessToken) {
+        return () -> {
+            if (!isBearerToken(accessToken)) {
+                return invalidToken();
             }
 
             String userFirstName = spotifyService.getUserFirstName(accessToken);
             return ResponseEntity.ok(Collections.singletonMap("userFirstName", userFirstName));
+        };
+    }
+
+    @GetMapping("/recap")
+    public Callable<ResponseEntity<?>> getRecap(
+            @RequestHeader("Authorization") String accessToken,
+            @RequestParam(name = "timeRange", defaultValue = "long_term") String timeRange,
+            @RequestParam(name = "amount", defaultValue = "10") String amount,
+            @RequestParam(name = "imageSize", required = false) String imageSize
+    ) {
+        return () -> {
+            ResponseEntity<?> rejected = rejectListRequest(accessToken, amount, imageSize);
+            if (rejected != null) {
+                return rejected;
+            }
+            Integer displaySize = parseImageSize(imageSize);
+
+            Map<String, Object> recap = recapService.getRecap(accessToken, timeRange, amount, displaySize);
+
+            // partial results are still a 200, only a recap with nothing in it is treated as an upstream failure
+            if (RecapService.allFailed(recap)) {
+                return ResponseEntity.status(HttpStatus.BAD_GATEWAY).body(recap);
+            }
+            return ResponseEntity.ok(recap);
+        };
+    }
+
+    // freezes the recap as it is right now under a short id, /share/{id} serves it to anyone with the link
+    @PostMapping("/share")
+    public Callable<ResponseEntity<?>> shareRecap(
+            @RequestHeader("Authorization") String accessToken,
+            @RequestParam(name = "timeRange", defaultValue = "long_term") String timeRange,
+            @RequestParam(name = "amount", defaultValue = "10") String amount,
+            @RequestParam(name = "imageSize", required = false) String imageSize
+    ) {
+        return () -> {
+            ResponseEntity<?> rejected = rejectListRequest(accessToken, amount, imageSize);
+            if (rejected != null) {
+                return rejected;
+            }
+            Integer displaySize = parseImageSize(imageSize);
+
+            Map<String, Object> recap = recapService.getRecap(accessToken, timeRange, amount, displaySize);
+
+            // unlike /recap only a complete one is published, a missing section would stay missing for good
+            Map<?, ?> errors = (Map<?, ?>) recap.remove("errors");
+            if (!errors.isEmpty()) {
+                recap.put("errors", errors);
+                return ResponseEntity.status(HttpStatus.BAD_GATEWAY).body(recap);
+            }
+            recap.put("timeRange", timeRange);
+
+            String id = sharedRecapStore.publish(recap);
+            String url = "/api/share/" + id;
+            return ResponseEntity.created(URI.create(url)).body(Map.of("id", id, "url", url));
+        };
+    }
+
+    // no Authorization and no spotify: the stored gzip bytes go out as they are, with the id as the ETag.
+    // only a client that can't take gzip gets them unpacked
+    @GetMapping("/share/{id}")
+    public ResponseEntity<?> getSharedRecap(
+            @PathVariable("id") String id,
+            @RequestHeader(name = "If-None-Match", required = false) String ifNoneMatch,
+            @RequestHeader(name = "Accept-Encoding", required = false) String acceptEncoding
+    ) throws IOException {
+        if (!SharedRecapStore.isValidId(id)) {
+            return ResponseEntity.notFound().build();
+        }
+        String etag = "\"" + id + "\"";
+        CacheControl cacheControl = CacheControl.maxAge(shareMaxAge).cachePublic().immutable();
+        if (ifNoneMatch != null && RecapEtagService.matches(ifNoneMatch, etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).cacheControl(cacheControl).build();
+        }
+
+        byte[] gzipped = sharedRecapStore.get(id);
+        if (gzipped == null) {
+            return ResponseEntity.notFound().build();
         }
-        catch(Exception e) {
-            e.printStackTrace();
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of("error", "Internal server error"));
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .eTag(etag)
+                .cacheControl(cacheControl)
+                .varyBy(HttpHeaders.ACCEPT_ENCODING)
+                .contentType(MediaType.APPLICATION_JSON);
+        if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            // already encoded, so tomcat's compression leaves it alone
+            return response.header(HttpHeaders.CONTENT_ENCODING, "gzip")
+                    .contentLength(gzipped.length)
+                    .body(gzipped);
+        }
+        return response.body(gunzip(gzipped));
+    }
+
+    private static byte[] gunzip(byte[] gzipped) throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(gzipped))) {
+            return in.readAllBytes();
         }
     }
+
+    @PostMapping("/history/consent")
+    public Callable<ResponseEntity<?>> optIntoHistory(
+            @RequestHeader("Authorization") String accessToken,
+            @RequestBody Map<String, String> body
+    ) {
+        return () -> {
+            try {
+                if (!isBearerToken(accessToken)) {
+                    return invalidToken();
+                }
+                String refreshToken = body.get("refresh_token");
+                if (refreshToken == null || refreshToken.isBlank()) {
+                    return ResponseEntity.badRequest().body(Map.of("error", "Missing refresh_token in body"));
+                }
+
+                if (!listeningHistoryService.optIn(accessToken, refreshToken)) {
+                    return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                            .body(Map.of("error", "refresh_token belongs to a different Spotify account"));
+                }
+                return ResponseEntity.ok(Map.of("history", "enabled"));
+            }
+            catch(HttpClientErrorException.BadRequest | HttpClientErrorException.Unauthorized e) {
+                // spotify doesn't take the refresh token (invalid_grant)
+                return ResponseEntity.badRequest().body(Map.of("error", "Invalid refresh_token"));
+            }
+        };
+    }
+
+    // withdrawing consent also deletes everything recorded so far
+    @DeleteMapping("/history/consent")
+    public Callable<ResponseEntity<?>> optOutOfHistory(@RequestHeader("Authorization") String accessToken) {
+        return () -> {
+            if (!isBearerToken(accessToken)) {
+                return invalidToken();
+            }
+
+            listeningHistoryService.optOut(accessToken);
+            return ResponseEntity.ok(Map.of("history", "disabled"));
+        };
+    }
+
+    // e.g. /history/rank-movement?kind=artists&timeRange=short_term&since=7d, answered from the local history only
+    @GetMapping("/history/rank-movement")
+    public Callable<ResponseEntity<?>> getRankMovement(
+            @RequestHeader("Authorization") String accessToken,
+            @RequestParam(name = "kind", defaultValue = "tracks") String kind,
+            @RequestParam(name = "timeRange", defaultValue = "short_term") String timeRange,
+            @RequestParam(name = "since", defaultValue = "7d") String since
+    ) {
+        return () -> {
+            if (!isBearerToken(accessToken)) {
+                return invalidToken();
+            }
+
+            HistoryKind historyKind = HistoryKind.fromKey(kind);
+            if (historyKind == null || !SpotifySnapshotService.TIME_RANGES.contains(timeRange)) {
+                return ResponseEntity.badRequest().body(Map.of("error", "Unknown kind or timeRange"));
+            }
+            Duration lookback;
+            try {
+                lookback = DurationStyle.detectAndParse(since);
+            }
+            catch (IllegalArgumentException e) {
+                return ResponseEntity.badRequest().body(Map.of("error", "Invalid since, use e.g. 7d or 12h"));
+            }
+
+            List<RankMovement> movement = listeningHistoryService.getRankMovement(accessToken, historyKind, timeRange,
+                    Instant.now().minus(lookback));
+            if (movement == null) {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                        .body(Map.of("error", "No listening history yet, opt in with POST /api/history/consent"));
+            }
+            return ResponseEntity.ok(movement);
+        };
+    }
+
+    // e.g. /img?src=https%3A%2F%2Fi.scdn.co%2Fimage%2F... - no Authorization here, <img> tags can't send one. only
+    // spotify's image hosts are proxied (ImageProxyCache), and what's served never changes under its URL
+    @GetMapping("/img")
+    public Callable<ResponseEntity<?>> getImage(@RequestParam("src") String src) {
+        return () -> {
+            if (!imageProxyCache.isEnabled()) {
+                return ResponseEntity.notFound().build();
+            }
+            if (!imageProxyCache.isAllowed(src)) {
+                return ResponseEntity.badRequest().body(Map.of("error", "Image URL not allowed"));
+            }
+
+            ImageProxyCache.CachedImage image = imageProxyCache.get(src);
+            return ResponseEntity.ok()
+                    .cacheControl(CacheControl.maxAge(imageMaxAge).cachePublic().immutable())
+                    .contentType(image.contentType())
+                    .contentLength(image.size())
+                    .body(new FileSystemResource(image.path()));
+        };
+    }
+
+    private static boolean isBearerToken(String accessToken) {
+        return accessToken != null && accessToken.startsWith("Bearer ");
+    }
+
+    private static ResponseEntity<?> invalidToken() {
+        return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("error", "Invalid access token"));
+    }
+
+    // the checks every list endpoint (and /recap, /share) makes before going upstream, null when the request passes
+    private static ResponseEntity<?> rejectListRequest(String accessToken, String amount, String imageSize) {
+        if (!isBearerToken(accessToken)) {
+            return invalidToken();
+        }
+        if (!isValidAmount(amount)) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Invalid amount, use a whole number from 1"));
+        }
+        if (imageSize != null && parseImageSize(imageSize) == null) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Invalid imageSize, use a width in px"));
+        }
+        return null;
+    }
+
+    // how many entries a list gets. anything from 1 is accepted, but the lists are cut from one cached snapshot of
+    // SpotifySnapshotService.SNAPSHOT_LIMIT (50) entries, so a bigger amount just gets all of them
+    private static boolean isValidAmount(String amount) {
+        try {
+            return Integer.parseInt(amount) >= 1;
+        }
+        catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    // width in px, null when it's missing or not a positive number
+    private static Integer parseImageSize(String imageSize) {
+        if (imageSize == null) {
+            return null;
+        }
+        try {
+            int size = Integer.parseInt(imageSize.trim());
+            return size > 0 ? size : null;
+        }
+        catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // recap lists are per user, so only the browser may keep them (private) and only for this token (Vary)
+    private ResponseEntity<?> cacheableOk(String etag, Object body) {
+        return ResponseEntity.ok()
+                .eTag(etag)
+                .cacheControl(CacheControl.maxAge(recapMaxAge).cachePrivate().mustRevalidate())
+                .varyBy(HttpHeaders.AUTHORIZATION)
+                .body(body);
+    }
+
+    private ResponseEntity<?> notModified(String etag) {
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                .eTag(etag)
+                .cacheControl(CacheControl.maxAge(recapMaxAge).cachePrivate().mustRevalidate())
+                .varyBy(HttpHeaders.AUTHORIZATION)
+                .build();
+    }
 }
@@ -0,0 +1,17 @@
+package com.spotifyproject.spotirecap.exception;
+
+import java.time.Duration;
+
+public class SpotifyRateLimitedException extends SpotifyApiException {
+
+    private final Duration retryAfter;
+
+    public SpotifyRateLimitedException(String message, Duration retryAfter) {
+        super(message);
+        this.retryAfter = retryAfter;
+    }
+
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+}
@@ -0,0 +1,8 @@
+package com.spotifyproject.spotirecap.exception;
+
+public class SpotifyUnavailableException extends SpotifyApiException {
+
+    public SpotifyUnavailableException(String message) {
+        super(message);
+    }
+}
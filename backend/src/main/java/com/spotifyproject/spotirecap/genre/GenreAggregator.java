@@ -0,0 +1,202 @@
+package com.spotifyproject.spotirecap.genre;
+
+import com.spotifyproject.spotirecap.model.TopArtist;
+import com.spotifyproject.spotirecap.model.TopGenre;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// genres of one or more top-artist lists, ranked by score: every artist adds 1/log2(rank + 2) to each of its genres
+// (1 for the top artist, ~0.18 for the 50th), so a genre the favourite artists share beats one spread over the tail.
+// count is how many distinct artists have the genre. genres are counted by interned id into int/double arrays and
+// only the best k are kept in a heap, nothing is boxed or sorted whole. one instance per aggregation, not thread-safe
+public class GenreAggregator {
+
+    // pictures kept per genre, the frontend draws a 3x3 grid
+    public static final int MAX_IMAGES = 9;
+
+    private static final GenreDictionary SHARED_DICTIONARY = new GenreDictionary();
+    private static final double[] RANK_WEIGHTS = new double[64];
+
+    static {
+        for (int rank = 0; rank < RANK_WEIGHTS.length; rank++) {
+            RANK_WEIGHTS[rank] = rankWeight(rank);
+        }
+    }
+
+    private final GenreDictionary dictionary;
+
+    // indexed by genre id, grown to the largest id seen
+    private int[] counts;
+    private double[] scores;
+    // 1-based order of first appearance, 0 = not seen in this aggregation. breaks ties between equal genres
+    private int[] firstSeen;
+    private String[][] images;
+    private int[] imageCounts;
+
+    // ids seen in this aggregation, in order of first appearance
+    private int[] seen = new int[64];
+    private int seenCount;
+
+    // artists already counted, so merging time ranges counts an artist that's in several of them once
+    private final Set<String> countedArtists = new HashSet<>();
+
+    public GenreAggregator() {
+        this(SHARED_DICTIONARY);
+    }
+
+    GenreAggregator(GenreDictionary dictionary) {
+        this.dictionary = dictionary;
+        int capacity = Math.max(64, dictionary.size());
+        counts = new int[capacity];
+        scores = new double[capacity];
+        firstSeen = new int[capacity];
+        images = new String[capacity][];
+        imageCounts = new int[capacity];
+    }
+
+    // one top-artists list, best first. calling it once per time range merges them in the same pass: scores add up,
+    // with rangeWeight scaling a whole list against the others
+    public GenreAggregator add(List<TopArtist> artists, double rangeWeight) {
+        for (int rank = 0; rank < artists.size(); rank++) {
+            TopArtist artist = artists.get(rank);
+            double weight = rangeWeight * (rank < RANK_WEIGHTS.length ? RANK_WEIGHTS[rank] : rankWeight(rank));
+            boolean firstTime = artist.id() == null || countedArtists.add(artist.id());
+
+            for (String genre : artist.genres()) {
+                int id = track(dictionary.id(genre));
+                scores[id] += weight;
+                if (firstTime) {
+                    counts[id]++;
+                    addImage(id, artist.artistImageUrl());
+                }
+            }
+        }
+        return this;
+    }
+
+    public GenreAggregator add(List<TopArtist> artists) {
+        return add(artists, 1.0);
+    }
+
+    // the k best genres, best first
+    public List<TopGenre> top(int k) {
+        int size = Math.min(k, seenCount);
+        if (size <= 0) {
+            return List.of();
+        }
+
+        // min-heap of the best k so far, its root is the weakest of them
+        int[] heap = new int[size];
+        int heapSize = 0;
+        for (int i = 0; i < seenCount; i++) {
+            int id = seen[i];
+            if (heapSize < size) {
+                heap[heapSize] = id;
+                siftUp(heap, heapSize++);
+            }
+            else if (better(id, heap[0])) {
+                heap[0] = id;
+                siftDown(heap, heapSize);
+            }
+        }
+
+        TopGenre[] ranked = new TopGenre[size];
+        for (int i = size - 1; i >= 0; i--) {
+            ranked[i] = toTopGenre(heap[0]);
+            heap[0] = heap[--heapSize];
+            siftDown(heap, heapSize);
+        }
+        return Arrays.asList(ranked);
+    }
+
+    private TopGenre toTopGenre(int id) {
+        List<String> genreImages = new ArrayList<>(imageCounts[id]);
+        for (int i = 0; i < imageCounts[id]; i++) {
+            genreImages.add(images[id][i]);
+        }
+        // two decimals are plenty to tell genres apart on the client
+        return new TopGenre(dictionary.name(id), counts[id], genreImages, Math.round(scores[id] * 100) / 100.0);
+    }
+
+    private boolean better(int a, int b) {
+        if (scores[a] != scores[b]) {
+            return scores[a] > scores[b];
+        }
+        if (counts[a] != counts[b]) {
+            return counts[a] > counts[b];
+        }
+        return firstSeen[a] < firstSeen[b];
+    }
+
+    private void siftUp(int[] heap, int index) {
+        int id = heap[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (!better(heap[parent], id)) {
+                break;
+            }
+            heap[index] = heap[parent];
+            index = parent;
+        }
+        heap[index] = id;
+    }
+
+    private void siftDown(int[] heap, int heapSize) {
+        if (heapSize == 0) {
+            return;
+        }
+        int id = heap[0];
+        int index = 0;
+        int half = heapSize >>> 1;
+        while (index < half) {
+            int child = 2 * index + 1;
+            if (child + 1 < heapSize && better(heap[child], heap[child + 1])) {
+                child++;
+            }
+            if (!better(id, heap[child])) {
+                break;
+            }
+            heap[index] = heap[child];
+            index = child;
+        }
+        heap[index] = id;
+    }
+
+    // first time this aggregation sees the genre: remember it, growing the arrays for ids added since
+    private int track(int id) {
+        if (id >= counts.length) {
+            int capacity = Math.max(id + 1, counts.length * 2);
+            counts = Arrays.copyOf(counts, capacity);
+            scores = Arrays.copyOf(scores, capacity);
+            firstSeen = Arrays.copyOf(firstSeen, capacity);
+            images = Arrays.copyOf(images, capacity);
+            imageCounts = Arrays.copyOf(imageCounts, capacity);
+        }
+        if (firstSeen[id] == 0) {
+            if (seenCount == seen.length) {
+                seen = Arrays.copyOf(seen, seenCount * 2);
+            }
+            seen[seenCount++] = id;
+            firstSeen[id] = seenCount;
+        }
+        return id;
+    }
+
+    private void addImage(int id, String url) {
+        if (url == null || imageCounts[id] == MAX_IMAGES) {
+            return;
+        }
+        if (images[id] == null) {
+            images[id] = new String[MAX_IMAGES];
+        }
+        images[id][imageCounts[id]++] = url;
+    }
+
+    private static double rankWeight(int rank) {
+        return 1 / (Math.log(rank + 2) / Math.log(2));
+    }
+}
@@ -0,0 +1,39 @@
+package com.spotifyproject.spotirecap.genre;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+// genre name <-> small dense int id, for the lifetime of the process. spotify only knows a few thousand genres, so
+// this stays small, and the aggregation can count into plain arrays indexed by id
+final class GenreDictionary {
+
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    // guarded by this
+    private final List<String> names = new ArrayList<>();
+
+    // lock-free for every genre seen before, which after warm-up is practically all of them
+    int id(String genre) {
+        Integer id = ids.get(genre);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            id = ids.get(genre);
+            if (id == null) {
+                id = names.size();
+                names.add(genre);
+                ids.put(genre, id);
+            }
+            return id;
+        }
+    }
+
+    synchronized String name(int id) {
+        return names.get(id);
+    }
+
+    synchronized int size() {
+        return names.size();
+    }
+}
@@ -0,0 +1,74 @@
+package com.spotifyproject.spotirecap.history;
+
+import com.spotifyproject.spotirecap.security.TokenCipher;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+// users who opted into history snapshots, with the refresh token the snapshot job signs in with.
+// that token gives read access to the user's spotify data, so it's stored encrypted (TokenCipher) and bound to the
+// user id: the hash alone, or a value moved to another user's field, is useless
+@Component
+public class ConsentRegistry {
+
+    private static final String KEY = "spotirecap:history:consent";
+
+    private static final Logger log = LoggerFactory.getLogger(ConsentRegistry.class);
+
+    // HSET only if the field is still there, so a token rotated by a running snapshot can't re-enroll a user who
+    // opted out in the meantime
+    private static final DefaultRedisScript<Long> ROTATE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('hexists', KEYS[1], ARGV[1]) == 1 then redis.call('hset', KEYS[1], ARGV[1], ARGV[2]) return 1 else return 0 end",
+            Long.class);
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    @Autowired
+    private TokenCipher tokenCipher;
+
+    public void grant(String userId, String refreshToken) {
+        redisTemplate.opsForHash().put(KEY, userId, tokenCipher.encrypt(refreshToken, userId));
+    }
+
+    // false when the user isn't opted in (anymore), nothing is stored then
+    public boolean rotate(String userId, String refreshToken) {
+        Long rotated = redisTemplate.execute(ROTATE_SCRIPT, List.of(KEY), userId, tokenCipher.encrypt(refreshToken, userId));
+        return rotated != null && rotated == 1;
+    }
+
+    public void revoke(String userId) {
+        redisTemplate.opsForHash().delete(KEY, userId);
+    }
+
+    public boolean hasConsent(String userId) {
+        return redisTemplate.opsForHash().hasKey(KEY, userId);
+    }
+
+    // HSCAN in pages, so a big registry never has to fit in memory or block redis in one go. entries that don't
+    // decrypt (written under another key, or before encryption) are skipped, the user has to opt in again
+    public void forEach(BiConsumer<String, String> userAndRefreshToken) {
+        try (Cursor<Map.Entry<Object, Object>> cursor = redisTemplate.opsForHash().scan(KEY, ScanOptions.scanOptions().count(500).build())) {
+            while (cursor.hasNext()) {
+                Map.Entry<Object, Object> entry = cursor.next();
+                String userId = (String) entry.getKey();
+                String refreshToken = tokenCipher.decrypt((String) entry.getValue(), userId);
+                if (refreshToken == null) {
+                    log.warn("consent token does not decrypt, skipped user={}", userId);
+                    continue;
+                }
+                userAndRefreshToken.accept(userId, refreshToken);
+            }
+        }
+    }
+}
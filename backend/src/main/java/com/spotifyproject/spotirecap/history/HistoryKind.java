@@ -0,0 +1,21 @@
+package com.spotifyproject.spotirecap.history;
+
+// what a ranking is made of, the lowercase name is used in redis keys and the ?kind= parameter
+public enum HistoryKind {
+    TRACKS,
+    ARTISTS;
+
+    public String key() {
+        return name().toLowerCase();
+    }
+
+    // null for anything we don't keep history for
+    public static HistoryKind fromKey(String key) {
+        for (HistoryKind kind : values()) {
+            if (kind.key().equalsIgnoreCase(key)) {
+                return kind;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,87 @@
+package com.spotifyproject.spotirecap.history;
+
+import com.spotifyproject.spotirecap.logging.LogSampler;
+import com.spotifyproject.spotirecap.service.ListeningHistoryService;
+import com.spotifyproject.spotirecap.upstream.UpstreamPriority;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+
+import java.time.Duration;
+
+// walks the consent registry every check-interval and snapshots whoever is due. the per-user claim in redis
+// keeps several nodes from snapshotting the same user, and its expiry is what spaces the snapshots out.
+// all spotify calls here run as BACKGROUND so they queue behind interactive requests
+@Component
+public class HistorySnapshotJob {
+
+    private final LogSampler failureLog = new LogSampler(LoggerFactory.getLogger(HistorySnapshotJob.class), Duration.ofMinutes(1), 5);
+
+    @Autowired
+    private ConsentRegistry consentRegistry;
+
+    @Autowired
+    private ListeningHistoryStore historyStore;
+
+    @Autowired
+    private ListeningHistoryService historyService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${history.enabled:true}")
+    private boolean enabled;
+
+    @Value("${history.snapshot.interval:24h}")
+    private Duration interval;
+
+    // @Scheduled only takes millis or ISO-8601 (PT1H), not the 1h style used everywhere else
+    @Scheduled(fixedDelayString = "${history.snapshot.check-interval:PT1H}", initialDelayString = "${history.snapshot.initial-delay:PT2M}")
+    public void snapshotDueUsers() {
+        if (!enabled) {
+            return;
+        }
+
+        try {
+            consentRegistry.forEach(this::snapshotIfDue);
+        }
+        catch (Exception e) {
+            // redis is down, the next run picks everyone up again
+            failureLog.warn("history snapshot run failed", "consent registry", e);
+        }
+    }
+
+    private void snapshotIfDue(String userId, String refreshToken) {
+        if (!historyStore.claimSnapshot(userId, interval)) {
+            return;
+        }
+
+        try {
+            boolean recorded = UpstreamPriority.BACKGROUND.call(() -> historyService.snapshot(userId, refreshToken));
+            count(recorded ? "success" : "revoked");
+        }
+        catch (HttpClientErrorException.BadRequest | HttpClientErrorException.Unauthorized e) {
+            // invalid_grant: the user revoked our app on spotify's side, so the consent is worthless now
+            consentRegistry.revoke(userId);
+            count("revoked");
+        }
+        catch (Exception e) {
+            historyStore.releaseSnapshotClaim(userId);
+            count("failure");
+            failureLog.warn("history snapshot failed", userId, e);
+        }
+    }
+
+    private void count(String result) {
+        Counter.builder("history.snapshots")
+                .tag("result", result)
+                .register(meterRegistry)
+                .increment();
+    }
+}
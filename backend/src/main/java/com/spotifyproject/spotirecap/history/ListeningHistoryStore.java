@@ -0,0 +1,139 @@
+package com.spotifyproject.spotirecap.history;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.spotifyproject.spotirecap.model.RankMovement;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.*;
+
+// per user, kind and time range redis keeps:
+//   spotirecap:history:{user}:{kind}:{range}:current  the latest ranking as a json array of ids
+//   spotirecap:history:{user}:{kind}:{range}:deltas   sorted set of RankDelta json, scored by snapshot time
+//   spotirecap:history:{user}:{kind}:names            id -> display name
+// a snapshot only adds a delta when something actually moved
+@Component
+public class ListeningHistoryStore {
+
+    private static final String KEY_PREFIX = "spotirecap:history:";
+    private static final TypeReference<List<String>> ID_LIST = new TypeReference<>() {};
+    private static final TypeReference<RankDelta> DELTA = new TypeReference<>() {};
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    // deltas older than this are dropped, lookups further back then compare against the oldest ranking we still have
+    @Value("${history.retention:400d}")
+    private Duration retention;
+
+    public void recordSnapshot(String userId, HistoryKind kind, String timeRange, List<String> ids,
+                               Map<String, String> names, long at) {
+        String rangeKey = rangeKey(userId, kind, timeRange);
+        List<String> previous = readIds(redisTemplate.opsForValue().get(rangeKey + ":current"));
+        List<RankChange> changes = RankHistory.diff(previous, ids);
+
+        if (!names.isEmpty()) {
+            redisTemplate.opsForHash().putAll(namesKey(userId, kind), names);
+        }
+        if (!changes.isEmpty()) {
+            redisTemplate.opsForZSet().add(rangeKey + ":deltas", write(new RankDelta(at, changes)), at);
+            redisTemplate.opsForValue().set(rangeKey + ":current", write(ids));
+        }
+        redisTemplate.opsForZSet().removeRangeByScore(rangeKey + ":deltas", Double.NEGATIVE_INFINITY, at - retention.toMillis());
+    }
+
+    // current ranking plus whatever dropped out, each with its rank as of `since`. null if nothing was recorded yet
+    public List<RankMovement> rankMovement(String userId, HistoryKind kind, String timeRange, long since) {
+        String rangeKey = rangeKey(userId, kind, timeRange);
+        String currentJson = redisTemplate.opsForValue().get(rangeKey + ":current");
+        if (currentJson == null) {
+            return null;
+        }
+        List<String> current = readIds(currentJson);
+
+        // only the deltas after `since`, newest first, are read and undone
+        Set<String> newerDeltas = redisTemplate.opsForZSet().reverseRangeByScore(rangeKey + ":deltas", since + 1, Double.POSITIVE_INFINITY);
+        List<RankDelta> newestFirst = new ArrayList<>();
+        for (String delta : Objects.requireNonNullElse(newerDeltas, Set.<String>of())) {
+            newestFirst.add(read(delta, DELTA));
+        }
+        Map<String, Integer> previousRanks = RankHistory.rewind(current, newestFirst);
+
+        Set<String> currentIds = new HashSet<>(current);
+        List<String> ids = new ArrayList<>(current);
+        previousRanks.keySet().stream().filter(id -> !currentIds.contains(id)).forEach(ids::add);
+        List<Object> names = redisTemplate.opsForHash().multiGet(namesKey(userId, kind), new ArrayList<>(ids));
+
+        List<RankMovement> movements = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i++) {
+            String id = ids.get(i);
+            Integer rank = i < current.size() ? i + 1 : null;
+            movements.add(RankMovement.of(id, (String) names.get(i), rank, previousRanks.get(id)));
+        }
+        // dropped ones go after the current list, in the order they used to be ranked
+        movements.subList(current.size(), movements.size()).sort(Comparator.comparing(RankMovement::previousRank));
+        return movements;
+    }
+
+    // claims the next snapshot for this user across all nodes; the key expiring is what makes the user due again
+    public boolean claimSnapshot(String userId, Duration interval) {
+        return Boolean.TRUE.equals(redisTemplate.opsForValue()
+                .setIfAbsent(KEY_PREFIX + userId + ":snapshot-claim", String.valueOf(System.currentTimeMillis()), interval));
+    }
+
+    // after a failed snapshot, so the next run tries again instead of waiting out the whole interval
+    public void releaseSnapshotClaim(String userId) {
+        redisTemplate.delete(KEY_PREFIX + userId + ":snapshot-claim");
+    }
+
+    public void deleteHistory(String userId, Collection<String> timeRanges) {
+        List<String> keys = new ArrayList<>();
+        keys.add(KEY_PREFIX + userId + ":snapshot-claim");
+        for (HistoryKind kind : HistoryKind.values()) {
+            keys.add(namesKey(userId, kind));
+            for (String timeRange : timeRanges) {
+                keys.add(rangeKey(userId, kind, timeRange) + ":current");
+                keys.add(rangeKey(userId, kind, timeRange) + ":deltas");
+            }
+        }
+        redisTemplate.delete(keys);
+    }
+
+    private static String rangeKey(String userId, HistoryKind kind, String timeRange) {
+        return KEY_PREFIX + userId + ":" + kind.key() + ":" + timeRange;
+    }
+
+    private static String namesKey(String userId, HistoryKind kind) {
+        return KEY_PREFIX + userId + ":" + kind.key() + ":names";
+    }
+
+    private List<String> readIds(String json) {
+        return json != null ? read(json, ID_LIST) : List.of();
+    }
+
+    private <T> T read(String json, TypeReference<T> type) {
+        try {
+            return objectMapper.readValue(json, type);
+        }
+        catch (JsonProcessingException e) {
+            throw new IllegalStateException("Corrupt listening history entry", e);
+        }
+    }
+
+    private String write(Object value) {
+        try {
+            return objectMapper.writeValueAsString(value);
+        }
+        catch (JsonProcessingException e) {
+            throw new IllegalStateException("Could not write listening history entry", e);
+        }
+    }
+}
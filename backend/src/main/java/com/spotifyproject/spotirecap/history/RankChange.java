@@ -0,0 +1,5 @@
+package com.spotifyproject.spotirecap.history;
+
+// one item's move between two snapshots, ranks are 1-based and null means "not in the list"
+public record RankChange(String id, Integer from, Integer to) {
+}
@@ -0,0 +1,7 @@
+package com.spotifyproject.spotirecap.history;
+
+import java.util.List;
+
+// everything that moved in one snapshot, at = snapshot time in epoch millis
+public record RankDelta(long at, List<RankChange> changes) {
+}
@@ -0,0 +1,56 @@
+package com.spotifyproject.spotirecap.history;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// the delta math behind the history store: only what moved between two snapshots is written, and an older ranking
+// is rebuilt by undoing the deltas since then on top of the current one, so a lookup costs O(changes) and no upstream call
+final class RankHistory {
+
+    private RankHistory() {
+    }
+
+    // entries, moves and drop-outs between two id lists in rank order
+    static List<RankChange> diff(List<String> previous, List<String> current) {
+        Map<String, Integer> previousRanks = ranks(previous);
+        List<RankChange> changes = new ArrayList<>();
+
+        for (int i = 0; i < current.size(); i++) {
+            String id = current.get(i);
+            int rank = i + 1;
+            Integer before = previousRanks.remove(id);
+            if (before == null || before != rank) {
+                changes.add(new RankChange(id, before, rank));
+            }
+        }
+        // whatever is left in previousRanks fell out of the list
+        previousRanks.forEach((id, before) -> changes.add(new RankChange(id, before, null)));
+        return changes;
+    }
+
+    // id -> rank as it was before the given deltas (newest first) happened
+    static Map<String, Integer> rewind(List<String> current, List<RankDelta> newestFirst) {
+        Map<String, Integer> ranks = ranks(current);
+        for (RankDelta delta : newestFirst) {
+            for (RankChange change : delta.changes()) {
+                if (change.from() == null) {
+                    ranks.remove(change.id());
+                }
+                else {
+                    ranks.put(change.id(), change.from());
+                }
+            }
+        }
+        return ranks;
+    }
+
+    private static Map<String, Integer> ranks(List<String> ids) {
+        Map<String, Integer> ranks = new LinkedHashMap<>();
+        for (int i = 0; i < ids.size(); i++) {
+            ranks.put(ids.get(i), i + 1);
+        }
+        return ranks;
+    }
+}
@@ -0,0 +1,290 @@
+package com.spotifyproject.spotirecap.image;
+
+import com.spotifyproject.spotirecap.cache.SingleFlight;
+import com.spotifyproject.spotirecap.cache.TokenKeyGenerator;
+import com.spotifyproject.spotirecap.exception.SpotifyApiException;
+import com.spotifyproject.spotirecap.logging.LogSampler;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+// spotify's cover/artist pictures, fetched once and kept on local disk for /api/img. images on spotify's CDN never
+// change under their URL, so a cached file is good until it's evicted: least recently served first, once the
+// directory grows past max-disk-size. only https URLs on allowed-hosts are fetched and redirects aren't followed,
+// so this can't be pointed anywhere else
+@Component
+public class ImageProxyCache implements MeterBinder {
+
+    private static final Map<String, MediaType> EXTENSIONS = Map.of(
+            ".jpg", MediaType.IMAGE_JPEG,
+            ".png", MediaType.IMAGE_PNG,
+            ".gif", MediaType.IMAGE_GIF,
+            ".webp", MediaType.parseMediaType("image/webp"));
+
+    private final LogSampler failureLog = new LogSampler(LoggerFactory.getLogger(ImageProxyCache.class), Duration.ofMinutes(1), 5);
+    private final SingleFlight<String, CachedImage> downloads = new SingleFlight<>();
+    // file key -> image, least recently served first
+    private final LinkedHashMap<String, CachedImage> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long totalBytes;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder fetched = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+
+    @Value("${image.proxy.enabled:false}")
+    private boolean enabled;
+
+    @Value("${image.proxy.cache-dir:${java.io.tmpdir}/spotirecap-images}")
+    private String cacheDirectory;
+
+    @Value("${image.proxy.max-disk-size:512MB}")
+    private DataSize maxDiskSize;
+
+    // spotify's covers are well under this, anything bigger isn't what we're here for
+    @Value("${image.proxy.max-image-size:2MB}")
+    private DataSize maxImageSize;
+
+    @Value("${image.proxy.allowed-hosts:i.scdn.co,image-cdn-ak.spotifycdn.com,image-cdn-fa.spotifycdn.com}")
+    private Set<String> allowedHosts;
+
+    @Value("${image.proxy.connect-timeout:2s}")
+    private Duration connectTimeout;
+
+    @Value("${image.proxy.read-timeout:5s}")
+    private Duration readTimeout;
+
+    private Path cacheDir;
+    private RestTemplate restTemplate;
+
+    public record CachedImage(Path path, MediaType contentType, long size) {
+    }
+
+    @PostConstruct
+    void init() throws IOException {
+        if (!enabled) {
+            return;
+        }
+
+        SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory() {
+            @Override
+            protected void prepareConnection(HttpURLConnection connection, String httpMethod) throws IOException {
+                super.prepareConnection(connection, httpMethod);
+                connection.setInstanceFollowRedirects(false);
+            }
+        };
+        requestFactory.setConnectTimeout(connectTimeout);
+        requestFactory.setReadTimeout(readTimeout);
+        restTemplate = new RestTemplate(requestFactory);
+
+        cacheDir = Files.createDirectories(Path.of(cacheDirectory));
+        // what an earlier run left behind, oldest first so those are the first to go. a restart only knows when a
+        // file was written, not when it was last served
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(cacheDir)) {
+            files = listing.filter(Files::isRegularFile)
+                    .sorted(Comparator.comparing(ImageProxyCache::lastModified))
+                    .toList();
+        }
+        synchronized (entries) {
+            for (Path file : files) {
+                String fileName = file.getFileName().toString();
+                int dot = fileName.lastIndexOf('.');
+                MediaType type = dot > 0 ? EXTENSIONS.get(fileName.substring(dot)) : null;
+                if (type == null) {
+                    // an interrupted download's temp file
+                    Files.deleteIfExists(file);
+                    continue;
+                }
+                add(fileName.substring(0, dot), new CachedImage(file, type, Files.size(file)));
+            }
+            evict();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public boolean isAllowed(String src) {
+        try {
+            URI uri = new URI(src);
+            return "https".equals(uri.getScheme()) && uri.getUserInfo() == null && uri.getPort() == -1
+                    && uri.getHost() != null && allowedHosts.contains(uri.getHost().toLowerCase(Locale.ROOT));
+        }
+        catch (Exception e) {
+            return false;
+        }
+    }
+
+    // IllegalArgumentException for a URL that isn't allowed, SpotifyApiException when the CDN doesn't deliver
+    public CachedImage get(String src) throws Exception {
+        if (!enabled || !isAllowed(src)) {
+            throw new IllegalArgumentException("Image URL not allowed");
+        }
+
+        String key = TokenKeyGenerator.hash(src);
+        CachedImage cached = lookup(key);
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+
+        // a page full of thumbnails asks for the same picture many times over, it's fetched once
+        return downloads.execute(key, () -> {
+            CachedImage again = lookup(key);
+            return again != null ? again : download(src, key);
+        });
+    }
+
+    private CachedImage lookup(String key) {
+        synchronized (entries) {
+            CachedImage image = entries.get(key);
+            // deleted behind our back, fetch it again
+            if (image != null && !Files.exists(image.path())) {
+                entries.remove(key);
+                totalBytes -= image.size();
+                return null;
+            }
+            return image;
+        }
+    }
+
+    private CachedImage download(String src, String key) throws IOException {
+        Path temp = Files.createTempFile(cacheDir, key, ".tmp");
+        try {
+            MediaType type = restTemplate.execute(URI.create(src), HttpMethod.GET, null, response -> {
+                MediaType contentType = response.getHeaders().getContentType();
+                if (response.getStatusCode().value() != 200 || contentType == null || extension(contentType) == null) {
+                    throw new SpotifyApiException("Could not fetch image");
+                }
+                try (InputStream body = response.getBody(); OutputStream out = Files.newOutputStream(temp)) {
+                    copyLimited(body, out);
+                }
+                return contentType;
+            });
+
+            // written under its final name only once complete, a reader never sees half a file
+            Path file = cacheDir.resolve(key + extension(type));
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            CachedImage image = new CachedImage(file, new MediaType(type.getType(), type.getSubtype()), Files.size(file));
+            fetched.increment();
+
+            synchronized (entries) {
+                add(key, image);
+                evict();
+            }
+            return image;
+        }
+        catch (RestClientException e) {
+            failureLog.warn("image fetch failed", "spotify cdn", e);
+            throw new SpotifyApiException("Could not fetch image");
+        }
+        finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private void copyLimited(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[16 * 1024];
+        long copied = 0;
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            copied += read;
+            if (copied > maxImageSize.toBytes()) {
+                throw new SpotifyApiException("Image too large");
+            }
+            out.write(buffer, 0, read);
+        }
+    }
+
+    // callers hold the entries lock
+    private void add(String key, CachedImage image) {
+        CachedImage previous = entries.put(key, image);
+        if (previous != null) {
+            totalBytes -= previous.size();
+        }
+        totalBytes += image.size();
+    }
+
+    // callers hold the entries lock. the newest entry always stays, even if it alone is over the limit
+    private void evict() {
+        Iterator<CachedImage> oldestFirst = entries.values().iterator();
+        while (totalBytes > maxDiskSize.toBytes() && entries.size() > 1 && oldestFirst.hasNext()) {
+            CachedImage image = oldestFirst.next();
+            oldestFirst.remove();
+            totalBytes -= image.size();
+            evicted.increment();
+            try {
+                Files.deleteIfExists(image.path());
+            }
+            catch (IOException e) {
+                failureLog.warn("image eviction failed", image.path().toString(), e);
+            }
+        }
+    }
+
+    private static String extension(MediaType type) {
+        for (Map.Entry<String, MediaType> entry : EXTENSIONS.entrySet()) {
+            if (entry.getValue().equalsTypeAndSubtype(type)) {
+                return entry.getKey();
+            }
+        }
+        return null;
+    }
+
+    private static long lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        }
+        catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private long diskBytes() {
+        synchronized (entries) {
+            return totalBytes;
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("image.proxy.requests", hits, LongAdder::sum)
+                .tag("result", "hit")
+                .description("Images served by /api/img")
+                .register(registry);
+        FunctionCounter.builder("image.proxy.requests", fetched, LongAdder::sum)
+                .tag("result", "fetched")
+                .description("Images served by /api/img")
+                .register(registry);
+        FunctionCounter.builder("image.proxy.evictions", evicted, LongAdder::sum)
+                .description("Images dropped from the disk cache to stay under max-disk-size")
+                .register(registry);
+        Gauge.builder("image.proxy.disk.bytes", this, ImageProxyCache::diskBytes)
+                .description("Bytes of images cached on this node's disk")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+}
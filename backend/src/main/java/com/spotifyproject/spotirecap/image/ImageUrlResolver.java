@@ -0,0 +1,44 @@
+package com.spotifyproject.spotirecap.image;
+
+import com.spotifyproject.spotirecap.model.ImageVariant;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+// which image URL goes out in a response: the variant that fits the size the client draws it at, and with the
+// proxy on, pointed at /api/img so browsers fetch (and keep) it from us instead of spotify's CDN
+@Component
+public class ImageUrlResolver {
+
+    @Autowired
+    private ImageProxyCache imageProxyCache;
+
+    // where clients reach this backend, e.g. https://api.spotirecap.app. blank = URLs go out as spotify's
+    @Value("${image.proxy.base-url:}")
+    private String proxyBaseUrl;
+
+    // false when responses carry the cached URLs unchanged, the views can hand out the cached lists as they are then
+    public boolean rewrites(Integer displaySize) {
+        return displaySize != null || proxying();
+    }
+
+    public String resolve(List<ImageVariant> variants, Integer displaySize, String fallback) {
+        return proxied(ImageVariant.pick(variants, displaySize, fallback));
+    }
+
+    public String proxied(String url) {
+        if (url == null || !proxying() || !imageProxyCache.isAllowed(url)) {
+            return url;
+        }
+        return proxyBaseUrl + "/api/img?src=" + URLEncoder.encode(url, StandardCharsets.UTF_8);
+    }
+
+    private boolean proxying() {
+        return imageProxyCache.isEnabled() && !proxyBaseUrl.isBlank();
+    }
+}
@@ -0,0 +1,56 @@
+package com.spotifyproject.spotirecap.logging;
+
+import org.slf4j.Logger;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// lets at most maxPerWindow log lines through per window, the rest are only counted and reported on the next line
+// that gets through. when spotify or redis goes down every request fails the same way, and a stack trace per request
+// would turn an outage into a logging I/O problem on top
+public class LogSampler {
+
+    private final Logger log;
+    private final long windowNanos;
+    private final int maxPerWindow;
+
+    private final AtomicLong windowStart = new AtomicLong(System.nanoTime());
+    private final AtomicInteger loggedInWindow = new AtomicInteger();
+    private final LongAdder suppressed = new LongAdder();
+
+    public LogSampler(Logger log, Duration window, int maxPerWindow) {
+        this.log = log;
+        this.windowNanos = window.toNanos();
+        this.maxPerWindow = maxPerWindow;
+    }
+
+    // "<event> route=... suppressed=..." with the stack trace attached
+    public void error(String event, String route, Throwable e) {
+        if (log.isErrorEnabled() && admit()) {
+            log.error("{} route={} suppressed={}", event, route, suppressed.sumThenReset(), e);
+        }
+    }
+
+    // "<event> target=... error=... suppressed=...", message only, for failures we expect and recover from
+    public void warn(String event, String target, Throwable e) {
+        if (log.isWarnEnabled() && admit()) {
+            log.warn("{} target={} error=\"{}\" suppressed={}", event, target, e.getMessage(), suppressed.sumThenReset());
+        }
+    }
+
+    private boolean admit() {
+        long now = System.nanoTime();
+        long start = windowStart.get();
+        if (now - start >= windowNanos && windowStart.compareAndSet(start, now)) {
+            loggedInWindow.set(0);
+        }
+
+        if (loggedInWindow.incrementAndGet() > maxPerWindow) {
+            suppressed.increment();
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,28 @@
+package com.spotifyproject.spotirecap.model;
+
+import java.util.List;
+
+// one of the sizes spotify offers for a cover/artist picture, {"url": "https://i.scdn.co/image/...", "width": 300}.
+// all of them are square
+public record ImageVariant(String url, int width) {
+
+    // the smallest variant at least displaySize wide (so nothing gets upscaled), the largest one if none is.
+    // fallback when there's nothing to choose from, e.g. entries cached before the variants were kept
+    public static String pick(List<ImageVariant> variants, Integer displaySize, String fallback) {
+        if (displaySize == null || variants == null || variants.isEmpty()) {
+            return fallback;
+        }
+
+        ImageVariant best = null;
+        ImageVariant largest = null;
+        for (ImageVariant variant : variants) {
+            if (largest == null || variant.width() > largest.width()) {
+                largest = variant;
+            }
+            if (variant.width() >= displaySize && (best == null || variant.width() < best.width())) {
+                best = variant;
+            }
+        }
+        return (best != null ? best : largest).url();
+    }
+}
@@ -0,0 +1,11 @@
+package com.spotifyproject.spotirecap.model;
+
+// {"id": "0wwPcA6wtMf6HUMpIRdeP7", "name": "Hotline Bling - Drake", "rank": 3, "previousRank": 7, "change": 4}
+// rank null = dropped out since then, previousRank null = new entry, change > 0 = moved up
+public record RankMovement(String id, String name, Integer rank, Integer previousRank, Integer change) {
+
+    public static RankMovement of(String id, String name, Integer rank, Integer previousRank) {
+        Integer change = rank != null && previousRank != null ? previousRank - rank : null;
+        return new RankMovement(id, name, rank, previousRank, change);
+    }
+}
@@ -0,0 +1,23 @@
+package com.spotifyproject.spotirecap.model;
+
+import java.util.Map;
+
+// an access token and when it stops working (epoch millis). refreshToken is the one to use next time, which is the
+// one it was obtained with unless spotify rotated it
+public record TokenGrant(String accessToken, String refreshToken, long expiresAt) {
+
+    // from spotify's token response, {"access_token": "...", "expires_in": 3600, "refresh_token": "..." (optional)}
+    public static TokenGrant fromResponse(Map<?, ?> body, String previousRefreshToken, long now) {
+        Object refreshToken = body.get("refresh_token");
+        Object expiresIn = body.get("expires_in");
+        long lifetimeSeconds = expiresIn instanceof Number seconds ? seconds.longValue() : 3600;
+        return new TokenGrant(
+                (String) body.get("access_token"),
+                refreshToken instanceof String rotated ? rotated : previousRefreshToken,
+                now + lifetimeSeconds * 1000);
+    }
+
+    public long expiresIn(long now) {
+        return Math.max(0, (expiresAt - now) / 1000);
+    }
+}
@@ -0,0 +1,15 @@
+package com.spotifyproject.spotirecap.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+
+// {"id": "3TVXtAsR1Inumwj472S9r4", "name": "Drake", "artistImageUrl": "https://inserturlhere.com", "genres": ["rap", "hip hop"]}
+// artistImageUrl is the largest picture, artistImages every size and only kept in the cache like TopTrack's
+public record TopArtist(String id, String name, String artistImageUrl, List<String> genres,
+                        @JsonInclude(JsonInclude.Include.NON_NULL) List<ImageVariant> artistImages) {
+
+    public TopArtist(String id, String name, String artistImageUrl, List<String> genres) {
+        this(id, name, artistImageUrl, genres, null);
+    }
+}
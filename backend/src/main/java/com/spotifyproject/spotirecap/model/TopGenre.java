@@ -0,0 +1,8 @@
+package com.spotifyproject.spotirecap.model;
+
+import java.util.List;
+
+// {"genre": "rap", "count": 12, "genreArtistImageUrls": ["https://inserturlhere.com", ...], "score": 5.87}
+// count = artists with the genre, score = the same weighted by their rank (GenreAggregator), lists are ordered by it
+public record TopGenre(String genre, int count, List<String> genreArtistImageUrls, double score) {
+}
@@ -0,0 +1,15 @@
+package com.spotifyproject.spotirecap.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+
+// {"id": "0wwPcA6wtMf6HUMpIRdeP7", "name": "Hotline Bling", "artists": "Drake", "albumCoverUrl": "https://inserturlhere.com"}
+// albumCoverUrl is the largest cover, albumImages every size and only kept in the cache (responses carry the one picked)
+public record TopTrack(String id, String name, String artists, String albumCoverUrl,
+                       @JsonInclude(JsonInclude.Include.NON_NULL) List<ImageVariant> albumImages) {
+
+    public TopTrack(String id, String name, String artists, String albumCoverUrl) {
+        this(id, name, artists, albumCoverUrl, null);
+    }
+}
@@ -0,0 +1,5 @@
+package com.spotifyproject.spotirecap.model;
+
+// the stable spotify user id behind an access token, plus the display name so /user doesn't need its own call
+public record UserProfile(String id, String displayName) {
+}
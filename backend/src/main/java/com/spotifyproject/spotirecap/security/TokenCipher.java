@@ -0,0 +1,90 @@
+package com.spotifyproject.spotirecap.security;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+// AES-256-GCM for the spotify tokens we have to keep in redis, so a dump of redis alone doesn't hand out access to
+// anyone's account. the key only lives in the app's config (security.token-encryption-key, 32 bytes base64) and has
+// to be the same on every node. each value is bound to a context (e.g. the user id it's stored under), so a value
+// copied to another user's entry doesn't decrypt
+@Component
+public class TokenCipher {
+
+    private static final Logger log = LoggerFactory.getLogger(TokenCipher.class);
+
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int IV_BYTES = 12;
+    private static final int TAG_BITS = 128;
+
+    private final SecureRandom random = new SecureRandom();
+
+    @Value("${security.token-encryption-key:}")
+    private String encodedKey;
+
+    private SecretKey key;
+
+    @PostConstruct
+    void init() {
+        byte[] keyBytes;
+        if (encodedKey == null || encodedKey.isBlank()) {
+            // fine for a single dev node, but nothing stored survives a restart or is readable by another node
+            log.warn("security.token-encryption-key is not set, using a random key for this process only");
+            keyBytes = new byte[32];
+            random.nextBytes(keyBytes);
+        }
+        else {
+            keyBytes = Base64.getDecoder().decode(encodedKey.trim());
+            if (keyBytes.length != 32) {
+                throw new IllegalArgumentException("security.token-encryption-key must be 32 bytes, base64 encoded");
+            }
+        }
+        key = new SecretKeySpec(keyBytes, "AES");
+    }
+
+    // base64 of iv + ciphertext + tag
+    public String encrypt(String token, String context) {
+        byte[] iv = new byte[IV_BYTES];
+        random.nextBytes(iv);
+        try {
+            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, iv));
+            cipher.updateAAD(context.getBytes(StandardCharsets.UTF_8));
+            byte[] sealed = cipher.doFinal(token.getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().encodeToString(ByteBuffer.allocate(iv.length + sealed.length).put(iv).put(sealed).array());
+        }
+        catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Could not encrypt token", e);
+        }
+    }
+
+    // null when the value wasn't encrypted with this key and context, or isn't ours at all (e.g. a plaintext token
+    // written before encryption): the caller treats it like a missing token
+    public String decrypt(String value, String context) {
+        try {
+            byte[] bytes = Base64.getDecoder().decode(value);
+            if (bytes.length <= IV_BYTES) {
+                return null;
+            }
+            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, bytes, 0, IV_BYTES));
+            cipher.updateAAD(context.getBytes(StandardCharsets.UTF_8));
+            return new String(cipher.doFinal(bytes, IV_BYTES, bytes.length - IV_BYTES), StandardCharsets.UTF_8);
+        }
+        catch (IllegalArgumentException | GeneralSecurityException e) {
+            return null;
+        }
+    }
+}
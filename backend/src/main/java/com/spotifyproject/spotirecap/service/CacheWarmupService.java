@@ -0,0 +1,89 @@
+package com.spotifyproject.spotirecap.service;
+
+import com.spotifyproject.spotirecap.logging.LogSampler;
+import com.spotifyproject.spotirecap.model.TokenGrant;
+import com.spotifyproject.spotirecap.warmup.ActiveUserRegistry;
+
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+// keeps track of who signed in lately and pre-populates their recap caches before they come back (see CacheWarmupJob)
+@Service
+public class CacheWarmupService {
+
+    private final LogSampler failureLog = new LogSampler(LoggerFactory.getLogger(CacheWarmupService.class), Duration.ofMinutes(1), 5);
+
+    @Autowired
+    private SpotifySnapshotService spotifySnapshotService;
+
+    @Autowired
+    private GenreHistogramService genreHistogramService;
+
+    @Autowired
+    private SpotifyUserService spotifyUserService;
+
+    @Autowired
+    private SpotifyTokenManager spotifyTokenManager;
+
+    @Autowired
+    private ActiveUserRegistry activeUsers;
+
+    @Autowired
+    private ThreadPoolTaskExecutor signInRecorderExecutor;
+
+    @Value("${warmup.enabled:true}")
+    private boolean enabled;
+
+    // off the request thread so signing in never waits on the profile lookup or redis, and dropped when that pool
+    // is backed up (the user just isn't warmed this time). the lookup isn't wasted, the user's first recap request
+    // resolves the same token and finds the profile cached
+    public void recordSignIn(String accessToken, String refreshToken) {
+        if (!enabled || refreshToken == null) {
+            return;
+        }
+
+        CompletableFuture.runAsync(() -> {
+            try {
+                String userId = spotifyUserService.getProfile(accessToken).id();
+                activeUsers.recordActivity(userId, refreshToken, System.currentTimeMillis());
+            }
+            catch (Exception e) {
+                failureLog.warn("could not record active user", "warm-up registry", e);
+            }
+        }, signInRecorderExecutor);
+    }
+
+    // signs in with the stored refresh token and loads every recap cache for every time range (one entry each,
+    // whatever amount the user asks for later is served from it). the fresh token
+    // resolves to the same user id, so the entries land under the keys the user's own requests read.
+    // false if the refresh token turned out to belong to someone else, the user is forgotten in that case
+    public boolean warm(String userId, String refreshToken) {
+        // shares the token with the user's own session if they're signed in right now
+        TokenGrant grant = spotifyTokenManager.getAccessToken(refreshToken);
+        String accessToken = "Bearer " + grant.accessToken();
+
+        // spotify may rotate the refresh token, the old one stops working once it does
+        if (!refreshToken.equals(grant.refreshToken())) {
+            activeUsers.updateRefreshToken(userId, grant.refreshToken());
+        }
+
+        if (!userId.equals(spotifyUserService.getProfile(accessToken).id())) {
+            activeUsers.forget(userId);
+            return false;
+        }
+
+        // already cached entries are left alone, stale ones get their usual background refresh
+        for (String timeRange : SpotifySnapshotService.TIME_RANGES) {
+            spotifySnapshotService.getTopTracksSnapshot(accessToken, timeRange);
+            spotifySnapshotService.getTopArtistsSnapshot(accessToken, timeRange);
+            genreHistogramService.getGenreHistogram(accessToken, timeRange);
+        }
+        return true;
+    }
+}
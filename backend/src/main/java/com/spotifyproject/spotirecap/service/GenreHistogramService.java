@@ -0,0 +1,45 @@
+package com.spotifyproject.spotirecap.service;
+
+import com.spotifyproject.spotirecap.genre.GenreAggregator;
+import com.spotifyproject.spotirecap.model.TopGenre;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+
+// the best genres in a user's artist snapshot, highest rank-weighted score first (GenreAggregator). cached whole per
+// user and time range, /top-genres serves a prefix of it. its own bean for the same reason as SpotifySnapshotService
+@Service
+public class GenreHistogramService {
+
+    // timeRange for the genres of all three ranges together
+    public static final String ALL_TIME_RANGES = "all";
+
+    private static final Logger log = LoggerFactory.getLogger(GenreHistogramService.class);
+
+    @Autowired
+    private SpotifySnapshotService spotifySnapshotService;
+
+    @Cacheable(
+            value = "topGenres",
+            keyGenerator = "userKeyGenerator",
+            sync = true
+    )
+    public List<TopGenre> getGenreHistogram(String accessToken, String timeRange) {
+        log.debug("cache miss cache=topGenres timeRange={}", timeRange);
+        GenreAggregator aggregator = new GenreAggregator();
+        for (String range : timeRanges(timeRange)) {
+            aggregator.add(spotifySnapshotService.getTopArtistsSnapshot(accessToken, range));
+        }
+        return aggregator.top(SpotifySnapshotService.SNAPSHOT_LIMIT);
+    }
+
+    // "all" merges the three ranges, each already cached as its own artist snapshot
+    public static List<String> timeRanges(String timeRange) {
+        return ALL_TIME_RANGES.equals(timeRange) ? SpotifySnapshotService.TIME_RANGES : List.of(timeRange);
+    }
+}
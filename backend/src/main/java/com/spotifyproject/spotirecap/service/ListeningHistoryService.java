@@ -0,0 +1,114 @@
+package com.spotifyproject.spotirecap.service;
+
+import com.spotifyproject.spotirecap.history.ConsentRegistry;
+import com.spotifyproject.spotirecap.history.HistoryKind;
+import com.spotifyproject.spotirecap.history.ListeningHistoryStore;
+import com.spotifyproject.spotirecap.model.RankMovement;
+import com.spotifyproject.spotirecap.model.TokenGrant;
+import com.spotifyproject.spotirecap.model.TopArtist;
+import com.spotifyproject.spotirecap.model.TopTrack;
+import com.spotifyproject.spotirecap.model.UserProfile;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.*;
+
+// opt-in listening history: consenting users get their top tracks/artists snapshotted periodically (see
+// HistorySnapshotJob) and questions like "how did my ranking move since last week" are answered from that
+// local history, not from spotify
+@Service
+public class ListeningHistoryService {
+
+    @Autowired
+    private SpotifySnapshotService spotifySnapshotService;
+
+    @Autowired
+    private SpotifyUserService spotifyUserService;
+
+    @Autowired
+    private SpotifyTokenManager spotifyTokenManager;
+
+    @Autowired
+    private ConsentRegistry consentRegistry;
+
+    @Autowired
+    private ListeningHistoryStore historyStore;
+
+    // the first snapshot is taken by the next job run. false if the refresh token signs in as a different spotify
+    // user than the access token, nobody gets to attach their token to someone else's history (or the reverse).
+    // HttpClientErrorException.BadRequest means spotify doesn't accept the refresh token at all
+    public boolean optIn(String accessToken, String refreshToken) {
+        String userId = spotifyUserService.getProfile(accessToken).id();
+
+        TokenGrant grant = spotifyTokenManager.getAccessToken(refreshToken);
+        if (!userId.equals(spotifyUserService.getProfile("Bearer " + grant.accessToken()).id())) {
+            return false;
+        }
+        consentRegistry.grant(userId, grant.refreshToken());
+        return true;
+    }
+
+    public void optOut(String accessToken) {
+        String userId = spotifyUserService.getProfile(accessToken).id();
+        consentRegistry.revoke(userId);
+        historyStore.deleteHistory(userId, SpotifySnapshotService.TIME_RANGES);
+    }
+
+    // null when this user has no history for that kind and range (not opted in, or not snapshotted yet)
+    public List<RankMovement> getRankMovement(String accessToken, HistoryKind kind, String timeRange, Instant since) {
+        String userId = spotifyUserService.getProfile(accessToken).id();
+        return historyStore.rankMovement(userId, kind, timeRange, since.toEpochMilli());
+    }
+
+    // signs in with the stored refresh token and records one snapshot per kind and time range.
+    // false if the refresh token turned out to belong to someone else (consent is dropped then), or the user opted out
+    // while it ran. the opt-out deletes the history, so nothing may be written for them after that
+    public boolean snapshot(String userId, String refreshToken) {
+        // shares the token with the user's own session if they're signed in right now
+        TokenGrant grant = spotifyTokenManager.getAccessToken(refreshToken);
+        String accessToken = "Bearer " + grant.accessToken();
+
+        // spotify may rotate the refresh token, the old one stops working once it does
+        if (!refreshToken.equals(grant.refreshToken()) && !consentRegistry.rotate(userId, grant.refreshToken())) {
+            return false;
+        }
+
+        UserProfile profile = spotifyUserService.getProfile(accessToken);
+        if (!userId.equals(profile.id())) {
+            consentRegistry.revoke(userId);
+            return false;
+        }
+
+        Map<String, List<TopTrack>> tracks = new LinkedHashMap<>();
+        Map<String, List<TopArtist>> artists = new LinkedHashMap<>();
+        for (String timeRange : SpotifySnapshotService.TIME_RANGES) {
+            tracks.put(timeRange, spotifySnapshotService.getTopTracksSnapshot(accessToken, timeRange));
+            artists.put(timeRange, spotifySnapshotService.getTopArtistsSnapshot(accessToken, timeRange));
+        }
+
+        if (!consentRegistry.hasConsent(userId)) {
+            return false;
+        }
+        long at = System.currentTimeMillis();
+        for (String timeRange : SpotifySnapshotService.TIME_RANGES) {
+            Map<String, String> trackNames = new HashMap<>();
+            tracks.get(timeRange).forEach(track -> trackNames.put(track.id(), track.name() + " - " + track.artists()));
+            historyStore.recordSnapshot(userId, HistoryKind.TRACKS, timeRange,
+                    tracks.get(timeRange).stream().map(TopTrack::id).toList(), trackNames, at);
+
+            Map<String, String> artistNames = new HashMap<>();
+            artists.get(timeRange).forEach(artist -> artistNames.put(artist.id(), artist.name()));
+            historyStore.recordSnapshot(userId, HistoryKind.ARTISTS, timeRange,
+                    artists.get(timeRange).stream().map(TopArtist::id).toList(), artistNames, at);
+        }
+
+        // an opt-out between the check and the writes may have deleted the history before they landed
+        if (!consentRegistry.hasConsent(userId)) {
+            historyStore.deleteHistory(userId, SpotifySnapshotService.TIME_RANGES);
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,122 @@
+package com.spotifyproject.spotirecap.service;
+
+import com.spotifyproject.spotirecap.cache.ContentHash;
+import com.spotifyproject.spotirecap.cache.TwoTierCache;
+import com.spotifyproject.spotirecap.cache.UserKeyGenerator;
+import com.spotifyproject.spotirecap.logging.LogSampler;
+
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.function.Supplier;
+
+// ETags for the recap lists. each list is a prefix of one cache entry per user and time range, so the tag is that
+// entry's stored content hash plus the amount and image size, and answering If-None-Match never has to load,
+// deserialize or re-serialize anything
+@Service
+public class RecapEtagService {
+
+    private final LogSampler failureLog = new LogSampler(LoggerFactory.getLogger(RecapEtagService.class), Duration.ofMinutes(1), 5);
+
+    @Autowired
+    private CacheManager cacheManager;
+
+    @Autowired
+    private UserKeyGenerator userKeyGenerator;
+
+    public record Tagged<T>(T body, String etag) {
+    }
+
+    // the key the snapshot @Cacheable methods use for these params
+    public String cacheKey(String accessToken, Object... params) {
+        return userKeyGenerator.userKey(accessToken, params);
+    }
+
+    // the ETag when the client's copy (If-None-Match) is still what the cache would serve, null otherwise or
+    // for anything that can't be answered from the cache metadata, the request then just goes the normal way
+    public String matchingEtag(String cacheName, String cacheKey, String amount, Integer imageSize, String ifNoneMatch) {
+        if (ifNoneMatch == null || ifNoneMatch.isBlank()) {
+            return null;
+        }
+
+        try {
+            String view = view(amount, imageSize);
+            TwoTierCache cache = twoTierCache(cacheName);
+            Long hash = cache != null && view != null ? cache.contentHash(cacheKey) : null;
+            if (hash == null) {
+                return null;
+            }
+            String etag = ContentHash.etag(hash, view);
+            return matches(ifNoneMatch, etag) ? etag : null;
+        }
+        catch (Exception e) {
+            failureLog.warn("etag lookup failed", cacheName, e);
+            return null;
+        }
+    }
+
+    // runs the loader and tags what it returns. the entry's hash is looked at before and after: if it moved in
+    // between (refreshed meanwhile) the body may be cut from either version, so it's tagged by its own hash instead,
+    // which just won't match next time
+    public <T> Tagged<T> load(String cacheName, String cacheKey, String amount, Integer imageSize, Supplier<T> loader) {
+        TwoTierCache cache = twoTierCache(cacheName);
+        Long before = currentHash(cache, cacheName, cacheKey);
+        T body = loader.get();
+        Long after = currentHash(cache, cacheName, cacheKey);
+
+        String view = view(amount, imageSize);
+        boolean sameEntry = after != null && (before == null || before.equals(after));
+        String etag = sameEntry && view != null
+                ? ContentHash.etag(after, view)
+                : ContentHash.etag(ContentHash.of(body));
+        return new Tagged<>(body, etag);
+    }
+
+    private Long currentHash(TwoTierCache cache, String cacheName, String cacheKey) {
+        if (cache == null) {
+            return null;
+        }
+        try {
+            return cache.currentContentHash(cacheKey);
+        }
+        catch (Exception e) {
+            failureLog.warn("etag lookup failed", cacheName, e);
+            return null;
+        }
+    }
+
+    private TwoTierCache twoTierCache(String cacheName) {
+        Cache cache = cacheManager.getCache(cacheName);
+        return cache instanceof TwoTierCache twoTierCache ? twoTierCache : null;
+    }
+
+    // what the response is cut from the entry: SpotifyService.prefix's length plus the picked image size.
+    // null for an amount prefix rejects
+    private static String view(String amount, Integer imageSize) {
+        try {
+            int prefixLength = Math.max(0, Integer.parseInt(amount));
+            return imageSize == null ? String.valueOf(prefixLength) : prefixLength + "-" + imageSize;
+        }
+        catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // If-None-Match is a list and compares weakly, so W/"x" matches "x" (tomcat weakens the tag when it gzips)
+    public static boolean matches(String ifNoneMatch, String etag) {
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,90 @@
+package com.spotifyproject.spotirecap.service;
+
+import com.spotifyproject.spotirecap.exception.SpotifyApiException;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+// builds the whole recap page in one go by running the SpotifyService calls side by side
+@Service
+public class RecapService {
+
+    @Autowired
+    private SpotifyService spotifyService;
+
+    @Autowired
+    private ThreadPoolTaskExecutor recapExecutor;
+
+    @Value("${recap.section-timeout:10s}")
+    private Duration sectionTimeout;
+
+    // the parts of the page, each loaded on its own. everything else in a recap (errors) is not a section
+    public static final List<String> SECTIONS = List.of("topTracks", "topArtists", "topGenres", "userFirstName");
+
+    public Map<String, Object> getRecap(String accessToken, String timeRange, String amount, Integer imageSize) {
+        Map<String, CompletableFuture<Object>> sections = new LinkedHashMap<>();
+        for (String section : SECTIONS) {
+            sections.put(section, submit(() -> load(section, accessToken, timeRange, amount, imageSize)));
+        }
+
+        Map<String, Object> recap = new LinkedHashMap<>();
+        Map<String, String> errors = new LinkedHashMap<>();
+
+        // one failing section shouldn't take the rest of the page down with it
+        for (Map.Entry<String, CompletableFuture<Object>> section : sections.entrySet()) {
+            try {
+                recap.put(section.getKey(), section.getValue().join());
+            }
+            catch (CompletionException e) {
+                recap.put(section.getKey(), null);
+                errors.put(section.getKey(), describe(e.getCause()));
+            }
+        }
+
+        recap.put("errors", errors);
+
+        // {"topTracks": [...], "topArtists": [...], "topGenres": [...], "userFirstName": "Drake", "errors": {}}
+        return recap;
+    }
+
+    // true when not a single section could be loaded, there's nothing to show at all
+    public static boolean allFailed(Map<String, Object> recap) {
+        Map<?, ?> errors = (Map<?, ?>) recap.get("errors");
+        return errors.keySet().containsAll(SECTIONS);
+    }
+
+    private Object load(String section, String accessToken, String timeRange, String amount, Integer imageSize) {
+        return switch (section) {
+            case "topTracks" -> spotifyService.getTopTracks(accessToken, timeRange, amount, imageSize);
+            case "topArtists" -> spotifyService.getTopArtists(accessToken, timeRange, amount, imageSize);
+            case "topGenres" -> spotifyService.getTopGenres(accessToken, timeRange, amount, imageSize);
+            case "userFirstName" -> spotifyService.getUserFirstName(accessToken);
+            default -> throw new IllegalArgumentException("Unknown recap section " + section);
+        };
+    }
+
+    private CompletableFuture<Object> submit(Supplier<Object> call) {
+        return CompletableFuture.supplyAsync(call, recapExecutor)
+                .orTimeout(sectionTimeout.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private String describe(Throwable cause) {
+        if (cause instanceof TimeoutException) {
+            return "Timed out waiting for Spotify";
+        }
+        if (cause instanceof SpotifyApiException) {
+            return cause.getMessage();
+        }
+        return "Internal server error";
+    }
+}
@@ -1,9 +1,16 @@
 package com.spotifyproject.spotirecap.service;
 
 import com.spotifyproject.spotirecap.exception.SpotifyApiException;
-
+import com.spotifyproject.spotirecap.image.ImageUrlResolver;
+import com.spotifyproject.spotirecap.model.ImageVariant;
+import com.spotifyproject.spotirecap.model.TokenGrant;
+import com.spotifyproject.spotirecap.model.TopArtist;
+import com.spotifyproject.spotirecap.model.TopGenre;
+import com.spotifyproject.spotirecap.model.TopTrack;
+import com.spotifyproject.spotirecap.upstream.SpotifyDispatcher;
+
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.cache.annotation.Cacheable;
 import org.springframework.http.*;
 import org.springframework.stereotype.Service;
 import org.springframework.util.LinkedMultiValueMap;
@@ -17,7 +24,23 @@ import java.util.stream.Collectors;
 @Service
 public class SpotifyService {
 
-    private final RestTemplate restTemplate = new RestTemplate();
+    @Autowired
+    private RestTemplate restTemplate;
+
+    @Autowired
+    private SpotifySnapshotService spotifySnapshotService;
+
+    @Autowired
+    private GenreHistogramService genreHistogramService;
+
+    @Autowired
+    private SpotifyUserService spotifyUserService;
+
+    @Autowired
+    private ImageUrlResolver imageUrlResolver;
+
+    @Autowired
+    private SpotifyDispatcher spotifyDispatcher;
 
     @Value("${spotify.client-id}")
     private String clientId;
@@ -28,8 +51,12 @@ public class SpotifyService {
     @Value("${spotify.redirect-uri}")
     private String redirectUri;
 
-    public Map<String, String> getAccessToken(String code) {
-        String tokenEndpoint = "https://accounts.spotify.com/api/token";
+    @Value("${spotify.accounts-base-url:https://accounts.spotify.com}")
+    private String accountsBaseUrl;
+
+    // callers go through SpotifyTokenManager, which caches what comes back
+    public TokenGrant getAccessToken(String code) {
+        String tokenEndpoint = accountsBaseUrl + "/api/token";
 
         HttpHeaders headers = new HttpHeaders();
         headers.setContentType(MediaType.APPLICATION_FORM_URLENCODED);
@@ -41,21 +68,17 @@ public class SpotifyService {
         form.add("redirect_uri", redirectUri);
 
         HttpEntity<MultiValueMap<String, String>> request = new HttpEntity<>(form, headers);
-        ResponseEntity<Map> response = restTemplate.postForEntity(tokenEndpoint, request, Map.class);
+        ResponseEntity<Map> response = spotifyDispatcher.execute(() -> restTemplate.postForEntity(tokenEndpoint, request, Map.class));
 
         if (!response.getStatusCode().is2xxSuccessful() || response.getBody() == null) {
             throw new SpotifyApiException("Failed to fetch access token from Spotify");
         }
 
-        Map<String, String> tokenResults = new HashMap<>();
-        tokenResults.put("access_token", (String) response.getBody().get("access_token"));
-        tokenResults.put("refresh_token", (String) response.getBody().get("refresh_token"));
-
-        return tokenResults;
+        return TokenGrant.fromResponse(response.getBody(), null, System.currentTimeMillis());
     }
 
-    public Map refreshAccessToken(String refreshToken) {
-        String tokenEndpoint = "https://accounts.spotify.com/api/token";
+    public TokenGrant refreshAccessToken(String refreshToken) {
+        String tokenEndpoint = accountsBaseUrl + "/api/token";
 
         HttpHeaders headers = new HttpHeaders();
         headers.setContentType(MediaType.APPLICATION_FORM_URLENCODED);
@@ -66,199 +89,81 @@ public class SpotifyService {
         requestBody.add("refresh_token", refreshToken);
 
         HttpEntity<MultiValueMap<String, String>> request = new HttpEntity<>(requestBody, headers);
-        ResponseEntity<Map> response = restTemplate.postForEntity(tokenEndpoint, request, Map.class);
+        ResponseEntity<Map> response = spotifyDispatcher.execute(() -> restTemplate.postForEntity(tokenEndpoint, request, Map.class));
 
         if (!response.getStatusCode().is2xxSuccessful() || response.getBody() == null) {
             throw new SpotifyApiException("Failed to fetch refresh token from Spotify");
         }
 
-        return response.getBody();
+        return TokenGrant.fromResponse(response.getBody(), refreshToken, System.currentTimeMillis());
     }
 
-    @Cacheable(
-            value = "topTracks",
-            key = "#accessToken + '_' + #timeRange + '_' + #amount"
-    )
-    public List<Map<String, String>> getTopTracks(String accessToken, String timeRange, String amount) {
-        System.out.println("❌ cache miss /top-tracks " + "time range: " + timeRange + " amount: " + amount );
-        String topTracksEndpoint = "https://api.spotify.com/v1/me/top/tracks?limit=" + amount + "&time_range=" + timeRange;
-
-        HttpHeaders headers = new HttpHeaders();
-        headers.set("Authorization", accessToken);
-
-        HttpEntity<String> request = new HttpEntity<>(headers);
-
-        ResponseEntity<Map> response = restTemplate.exchange(
-                topTracksEndpoint,
-                HttpMethod.GET,
-                request,
-                Map.class
-        );
-
-        if (!response.getStatusCode().is2xxSuccessful() || response.getBody() == null) {
-            throw new SpotifyApiException("Failed to fetch top tracks from Spotify");
-        }
-
-        // simplifying the raw response bc it is BULKY
-        // @TODO extract this simplification process into a function
-        List<Map<String, String>> simplifiedResponse = new ArrayList<>();
-        List<Map<String, Object>> items = (List<Map<String, Object>>) response.getBody().get("items");
-
-        for (Map<String, Object> item : items) {
-            String trackName = (String) item.get("name");
+    // the recap lists are cached whole per user and time range (SpotifySnapshotService, GenreHistogramService),
+    // every amount is a prefix of that one entry. imageSize is the width (px) the client draws the pictures at,
+    // null for the largest ones
+    public List<TopTrack> getTopTracks(String accessToken, String timeRange, String amount, Integer imageSize) {
+        List<TopTrack> topTracks = new ArrayList<>();
 
-            List<Map<String, Object>> artists = (List<Map<String, Object>>) item.get("artists");
-            String artistNames = artists.stream()
-                    .map(a -> (String) a.get("name"))
-                    .collect(Collectors.joining(", "));
-
-            Map<String, Object> album = (Map<String, Object>) item.get("album");
-            List<Map<String, Object>> images = (List<Map<String, Object>>) album.get("images");
-            String albumCoverUrl = (String) images.get(0).get("url");
-
-            Map<String, String> track = new HashMap<>();
-            track.put("name", trackName);
-            track.put("artists", artistNames);
-            track.put("albumCoverUrl", albumCoverUrl);
-            simplifiedResponse.add(track);
+        for(TopTrack track: prefix(spotifySnapshotService.getTopTracksSnapshot(accessToken, timeRange), amount)) {
+            String albumCoverUrl = imageUrlResolver.resolve(track.albumImages(), imageSize, track.albumCoverUrl());
+            topTracks.add(new TopTrack(track.id(), track.name(), track.artists(), albumCoverUrl));
         }
 
-        return simplifiedResponse;
+        return topTracks;
     }
 
-    @Cacheable(
-            value = "topArtists",
-            key = "#accessToken + '_' + #timeRange + '_' + #amount"
-    )
-    public List<Map<String, Object>> getTopArtists(String accessToken, String timeRange, String amount) {
-        System.out.println("❌ cache miss /top-artists " + "time range: " + timeRange + " amount: " + amount );
-        String topArtistsEndpoint = "https://api.spotify.com/v1/me/top/artists?limit=" + amount + "&time_range=" + timeRange;
+    public List<TopArtist> getTopArtists(String accessToken, String timeRange, String amount, Integer imageSize) {
+        List<TopArtist> artistsSnapshot = spotifySnapshotService.getTopArtistsSnapshot(accessToken, timeRange);
 
-        HttpHeaders headers = new HttpHeaders();
-        headers.set("Authorization", accessToken);
-
-        HttpEntity<String> request = new HttpEntity<>(headers);
-
-        ResponseEntity<Map> response = restTemplate.exchange(
-                topArtistsEndpoint,
-                HttpMethod.GET,
-                request,
-                Map.class
-        );
+        // simplifying the shared snapshot down to the requested amount
+        List<TopArtist> simplifiedResponse = new ArrayList<>();
 
-        if (!response.getStatusCode().is2xxSuccessful() || response.getBody() == null) {
-            throw new SpotifyApiException("Failed to fetch top artists from Spotify");
-        }
-
-        // simplifying raw response
-        // @TODO extract this simplification process into a function
-        List<Map<String, Object>> simplifiedResponse = new ArrayList<>();
-        List<Map<String, Object>> items = (List<Map<String, Object>>) response.getBody().get("items");
-
-        for(Map<String, Object> item: items) {
-            Map<String, Object> artistInfo = new HashMap<>();
-
-            String artistName = (String) item.get("name");
-            artistInfo.put("name", artistName);
-
-            List<Map<String, Object>> images = (List<Map<String, Object>>) item.get("images");
-            String artistImageUrl = (String) images.get(0).get("url");
-            artistInfo.put("artistImageUrl", artistImageUrl);
-
-            List<String> artistGenres = (List<String>) item.get("genres");
-            artistInfo.put("genres", artistGenres.stream().limit(2).collect(Collectors.toList()));
-
-            simplifiedResponse.add(artistInfo);
+        for(TopArtist artist: prefix(artistsSnapshot, amount)) {
+            List<String> artistGenres = artist.genres().stream().limit(2).collect(Collectors.toList());
+            String artistImageUrl = imageUrlResolver.resolve(artist.artistImages(), imageSize, artist.artistImageUrl());
+            simplifiedResponse.add(new TopArtist(artist.id(), artist.name(), artistImageUrl, artistGenres));
         }
 
         // [{"artistImageUrl": "https://inserturlhere.com", "name": "Drake"}]
         return simplifiedResponse;
     }
 
-    @Cacheable(
-            value = "topGenres",
-            key = "#accessToken + '_' + #timeRange + '_' + #amount"
-    )
-    public List<Map<String, Object>> getTopGenres(String accessToken, String timeRange, String amount) {
-        System.out.println("❌ cache miss /top-genres " + "time range: " + timeRange + " amount: " + amount );
-        String topArtistsEndpoint = "https://api.spotify.com/v1/me/top/artists?limit=50&time_range=" + timeRange;
-
-        HttpHeaders headers = new HttpHeaders();
-        headers.set("Authorization", accessToken);
-
-        HttpEntity<String> request = new HttpEntity<>(headers);
-
-        ResponseEntity<Map> response = restTemplate.exchange(
-                topArtistsEndpoint,
-                HttpMethod.GET,
-                request,
-                Map.class
-        );
-
-        if (!response.getStatusCode().is2xxSuccessful() || response.getBody() == null) {
-            throw new SpotifyApiException("Failed to fetch top genres from Spotify");
+    public List<TopGenre> getTopGenres(String accessToken, String timeRange, String amount, Integer imageSize) {
+        List<TopGenre> topGenres = prefix(genreHistogramService.getGenreHistogram(accessToken, timeRange), amount);
+        if (!imageUrlResolver.rewrites(imageSize)) {
+            // subList is a view, nothing gets copied
+            return topGenres;
         }
 
-        List<Map<String, Object>> items = (List<Map<String, Object>>) response.getBody().get("items");
-        Map<String, Integer> genreFrequency = new HashMap<>();
-        Map<String, List<String>> genreArtistImageMap = new HashMap<>();
-
-        for(Map<String, Object> item: items) {
-            ArrayList<String> genres = (ArrayList<String>) item.get("genres");
-            List<Map<String, Object>> artistImages = (List<Map<String, Object>>)item.get("images");
-            String artistImageUrl = (String) artistImages.get(0).get("url");
-
-
-            for(String genre: genres) {
-                genreFrequency.put(genre, genreFrequency.getOrDefault(genre, 0) + 1);
-                genreArtistImageMap.putIfAbsent(genre, new ArrayList<>());
-                genreArtistImageMap.get(genre).add(artistImageUrl);
+        // the histogram keeps each artist's largest picture, the other sizes come from the artist snapshot
+        Map<String, List<ImageVariant>> variantsByUrl = new HashMap<>();
+        for(String range: GenreHistogramService.timeRanges(timeRange)) {
+            for(TopArtist artist: spotifySnapshotService.getTopArtistsSnapshot(accessToken, range)) {
+                if (artist.artistImageUrl() != null) {
+                    variantsByUrl.put(artist.artistImageUrl(), artist.artistImages());
+                }
             }
         }
 
-        int limitAmount = Integer.parseInt(amount);
-        // sorting in descending order
-        List<Map<String, Object>> sortedGenres = genreFrequency.entrySet().stream()
-                .sorted((a, b) -> b.getValue().compareTo(a.getValue()))
-                .limit(limitAmount)
-                .map(entry -> {
-                    Map<String, Object> genreData = new HashMap<>();
-                    genreData.put("genre", entry.getKey());
-                    genreData.put("count", entry.getValue());
-
-                    List<String> artistImagesForGenre = genreArtistImageMap.getOrDefault(entry.getKey(), Collections.emptyList());
-                    genreData.put("genreArtistImageUrls",
-                            artistImagesForGenre.stream()
-                                    .limit(9)
-                                    .collect(Collectors.toList()));
-
-                    return genreData;
-                })
-                .collect(Collectors.toList());
-
-        return sortedGenres;
+        List<TopGenre> sizedGenres = new ArrayList<>(topGenres.size());
+        for(TopGenre genre: topGenres) {
+            List<String> imageUrls = genre.genreArtistImageUrls().stream()
+                    .map(url -> imageUrlResolver.resolve(variantsByUrl.get(url), imageSize, url))
+                    .collect(Collectors.toList());
+            sizedGenres.add(new TopGenre(genre.genre(), genre.count(), imageUrls, genre.score()));
+        }
+        return sizedGenres;
     }
 
-    public String getUserFirstName(String accessToken) {
-        String userProfileEndpoint = "https://api.spotify.com/v1/me";
-
-        HttpHeaders headers = new HttpHeaders();
-        headers.set("Authorization", accessToken);
-
-        HttpEntity<String> request = new HttpEntity<>(headers);
-
-        ResponseEntity<Map> response = restTemplate.exchange(
-                userProfileEndpoint,
-                HttpMethod.GET,
-                request,
-                Map.class
-        );
-
-        if (!response.getStatusCode().is2xxSuccessful() || response.getBody() == null) {
-            throw new SpotifyApiException("Failed to fetch user profile from Spotify");
-        }
+    // the first amount entries, or all of them when there are fewer - at most SNAPSHOT_LIMIT, however big amount is.
+    // the controller only lets through amounts from 1, NumberFormatException for anything non-numeric
+    static <T> List<T> prefix(List<T> list, String amount) {
+        int limitAmount = Math.max(0, Integer.parseInt(amount));
+        return list.subList(0, Math.min(limitAmount, list.size()));
+    }
 
-        String userFullName = (String) response.getBody().get("display_name");
+    public String getUserFirstName(String accessToken) {
+        String userFullName = spotifyUserService.getProfile(accessToken).displayName();
         String userFirstName = userFullName.split(" ")[0];
 
         return userFirstName;
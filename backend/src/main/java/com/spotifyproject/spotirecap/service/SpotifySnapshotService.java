@@ -0,0 +1,99 @@
+package com.spotifyproject.spotirecap.service;
+
+import com.spotifyproject.spotirecap.exception.SpotifyApiException;
+import com.spotifyproject.spotirecap.model.TopArtist;
+import com.spotifyproject.spotirecap.model.TopTrack;
+import com.spotifyproject.spotirecap.upstream.SpotifyDispatcher;
+import com.spotifyproject.spotirecap.upstream.SpotifyResponseParser;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.http.*;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.*;
+
+// holds the raw-ish upstream snapshots that several endpoints are derived from, always spotify's full page per
+// user and time range so every amount is a prefix of the same entry instead of a cache entry of its own.
+// kept in its own bean so the @Cacheable proxy applies when SpotifyService calls into it
+@Service
+public class SpotifySnapshotService {
+
+    private static final Logger log = LoggerFactory.getLogger(SpotifySnapshotService.class);
+
+    // spotify's max page size, every derived view is a subset of this
+    public static final int SNAPSHOT_LIMIT = 50;
+
+    // every time_range spotify's top endpoints accept
+    public static final List<String> TIME_RANGES = List.of("short_term", "medium_term", "long_term");
+
+    @Autowired
+    private RestTemplate restTemplate;
+
+    @Value("${spotify.api-base-url:https://api.spotify.com}")
+    private String apiBaseUrl;
+
+    @Autowired
+    private SpotifyDispatcher spotifyDispatcher;
+
+    @Cacheable(
+            value = "topTracks",
+            keyGenerator = "userKeyGenerator",
+            sync = true
+    )
+    public List<TopTrack> getTopTracksSnapshot(String accessToken, String timeRange) {
+        log.debug("cache miss cache=topTracks timeRange={}", timeRange);
+        return spotifyDispatcher.execute(() -> fetchTopTracksSnapshot(accessToken, timeRange));
+    }
+
+    private List<TopTrack> fetchTopTracksSnapshot(String accessToken, String timeRange) {
+        String topTracksEndpoint = apiBaseUrl + "/v1/me/top/tracks?limit=" + SNAPSHOT_LIMIT + "&time_range=" + timeRange;
+
+        // the raw response is BULKY, so it's streamed straight into TopTracks instead of building a Map tree first
+        List<TopTrack> topTracks = restTemplate.execute(
+                topTracksEndpoint,
+                HttpMethod.GET,
+                request -> request.getHeaders().set("Authorization", accessToken),
+                response -> SpotifyResponseParser.parseTopTracks(response.getBody())
+        );
+
+        if (topTracks == null) {
+            throw new SpotifyApiException("Failed to fetch top tracks from Spotify");
+        }
+
+        return topTracks;
+    }
+
+    @Cacheable(
+            value = "artistSnapshots",
+            keyGenerator = "userKeyGenerator",
+            sync = true
+    )
+    public List<TopArtist> getTopArtistsSnapshot(String accessToken, String timeRange) {
+        log.debug("cache miss cache=artistSnapshots timeRange={}", timeRange);
+        return spotifyDispatcher.execute(() -> fetchTopArtistsSnapshot(accessToken, timeRange));
+    }
+
+    private List<TopArtist> fetchTopArtistsSnapshot(String accessToken, String timeRange) {
+        String topArtistsEndpoint = apiBaseUrl + "/v1/me/top/artists?limit=" + SNAPSHOT_LIMIT + "&time_range=" + timeRange;
+
+        // keeping only what /top-artists and /top-genres need, but all genres (not just the first 2)
+        List<TopArtist> snapshot = restTemplate.execute(
+                topArtistsEndpoint,
+                HttpMethod.GET,
+                request -> request.getHeaders().set("Authorization", accessToken),
+                response -> SpotifyResponseParser.parseTopArtists(response.getBody())
+        );
+
+        if (snapshot == null) {
+            throw new SpotifyApiException("Failed to fetch top artists from Spotify");
+        }
+
+        // [{"name": "Drake", "artistImageUrl": "https://inserturlhere.com", "genres": ["rap", "hip hop", ...]}]
+        return snapshot;
+    }
+}
@@ -0,0 +1,237 @@
+package com.spotifyproject.spotirecap.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.spotifyproject.spotirecap.cache.SingleFlight;
+import com.spotifyproject.spotirecap.cache.TokenKeyGenerator;
+import com.spotifyproject.spotirecap.logging.LogSampler;
+import com.spotifyproject.spotirecap.model.TokenGrant;
+import com.spotifyproject.spotirecap.security.TokenCipher;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// hands out access tokens per refresh token (i.e. per signed-in user) so /auth/refresh and the background jobs
+// only go to spotify when a token actually runs out. tokens are kept until they expire, per node and in redis
+// (spotirecap:access-tokens:<sha-256 of the refresh token>) so every node sees a renewal. redis only gets the access
+// token, encrypted (TokenCipher), and its expiry: never the refresh token, every caller already holds that one. a token that is served with
+// less than renew-ahead left gets renewed in the background, one with less than min-validity is renewed right away,
+// and concurrent renewals of the same refresh token share one call to spotify
+@Service
+public class SpotifyTokenManager implements MeterBinder {
+
+    private static final String KEY_PREFIX = "spotirecap:access-tokens:";
+
+    private final LogSampler failureLog = new LogSampler(LoggerFactory.getLogger(SpotifyTokenManager.class), Duration.ofMinutes(1), 5);
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final SingleFlight<String, TokenGrant> renewals = new SingleFlight<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder renewed = new LongAdder();
+
+    @Autowired
+    private SpotifyService spotifyService;
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    @Autowired
+    private TokenCipher tokenCipher;
+
+    @Autowired
+    private ThreadPoolTaskExecutor cacheRefreshExecutor;
+
+    @Value("${auth.token.cache-size:10000}")
+    private long cacheSize;
+
+    @Value("${auth.token.renew-ahead:10m}")
+    private Duration renewAhead;
+
+    @Value("${auth.token.min-validity:2m}")
+    private Duration minValidity;
+
+    private Cache<String, TokenGrant> tokens;
+
+    @PostConstruct
+    void init() {
+        tokens = Caffeine.newBuilder()
+                .maximumSize(cacheSize)
+                .expireAfter(new Expiry<String, TokenGrant>() {
+                    @Override
+                    public long expireAfterCreate(String key, TokenGrant grant, long currentTime) {
+                        return untilExpiry(grant);
+                    }
+
+                    // a renewal replaces the grant, the entry lives as long as the new token
+                    @Override
+                    public long expireAfterUpdate(String key, TokenGrant grant, long currentTime, long currentDuration) {
+                        return untilExpiry(grant);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, TokenGrant grant, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .build();
+    }
+
+    private static long untilExpiry(TokenGrant grant) {
+        return TimeUnit.MILLISECONDS.toNanos(Math.max(0, grant.expiresAt() - System.currentTimeMillis()));
+    }
+
+    // authorization code -> tokens, seeded into the cache so the first refresh doesn't need spotify
+    public TokenGrant exchangeCode(String code) {
+        TokenGrant grant = spotifyService.getAccessToken(code);
+        if (grant.refreshToken() != null) {
+            remember(key(grant.refreshToken()), grant);
+        }
+        return grant;
+    }
+
+    // a token with at least min-validity left. HttpClientErrorException.BadRequest means spotify no longer
+    // accepts the refresh token (invalid_grant)
+    public TokenGrant getAccessToken(String refreshToken) {
+        String key = key(refreshToken);
+        long now = System.currentTimeMillis();
+
+        TokenGrant cached = lookup(key, refreshToken);
+        if (cached != null && cached.expiresAt() - now > minValidity.toMillis()) {
+            hits.increment();
+            if (cached.expiresAt() - now < renewAhead.toMillis()) {
+                renewInBackground(key, refreshToken);
+            }
+            return cached;
+        }
+        return renew(key, refreshToken, minValidity);
+    }
+
+    private void renewInBackground(String key, String refreshToken) {
+        try {
+            cacheRefreshExecutor.execute(() -> {
+                try {
+                    renew(key, refreshToken, renewAhead);
+                }
+                catch (Exception e) {
+                    // the cached token is still good for a while, the next request tries again
+                    failureLog.warn("token renewal failed", "spotify accounts", e);
+                }
+            });
+        }
+        catch (TaskRejectedException e) {
+            // refresh pool is saturated, same as above
+        }
+    }
+
+    // the loader looks again first, whoever renewed just before us (another node included) already did the work
+    private TokenGrant renew(String key, String refreshToken, Duration wantedValidity) {
+        try {
+            return renewals.execute(key, () -> {
+                TokenGrant current = lookup(key, refreshToken);
+                if (current != null && current.expiresAt() - System.currentTimeMillis() >= wantedValidity.toMillis()) {
+                    return current;
+                }
+
+                TokenGrant grant = spotifyService.refreshAccessToken(refreshToken);
+                renewed.increment();
+                remember(key, grant);
+                // spotify rotated it: callers still holding the old one get the new one along with the token
+                if (!refreshToken.equals(grant.refreshToken())) {
+                    remember(key(grant.refreshToken()), grant);
+                }
+                return grant;
+            });
+        }
+        catch (RuntimeException e) {
+            throw e;
+        }
+        catch (Exception e) {
+            throw new IllegalStateException("Token renewal failed", e);
+        }
+    }
+
+    // from another node the grant comes back with the caller's own refresh token, a rotation is only known where it happened
+    private TokenGrant lookup(String key, String refreshToken) {
+        TokenGrant grant = tokens.getIfPresent(key);
+        if (grant != null) {
+            return grant;
+        }
+
+        try {
+            String json = redisTemplate.opsForValue().get(KEY_PREFIX + key);
+            if (json == null) {
+                return null;
+            }
+            StoredToken stored = objectMapper.readValue(json, StoredToken.class);
+            String accessToken = tokenCipher.decrypt(stored.accessToken(), key);
+            if (accessToken == null) {
+                // written under another key, renewing is all we can do
+                return null;
+            }
+            grant = new TokenGrant(accessToken, refreshToken, stored.expiresAt());
+            tokens.put(key, grant);
+            return grant;
+        }
+        catch (Exception e) {
+            // without redis every node just keeps its own tokens
+            failureLog.warn("token cache read failed", "redis", e);
+            return null;
+        }
+    }
+
+    private void remember(String key, TokenGrant grant) {
+        tokens.put(key, grant);
+
+        long ttl = grant.expiresAt() - System.currentTimeMillis();
+        if (ttl <= 0) {
+            return;
+        }
+        try {
+            StoredToken stored = new StoredToken(tokenCipher.encrypt(grant.accessToken(), key), grant.expiresAt());
+            redisTemplate.opsForValue().set(KEY_PREFIX + key, objectMapper.writeValueAsString(stored), ttl, TimeUnit.MILLISECONDS);
+        }
+        catch (JsonProcessingException e) {
+            throw new IllegalStateException("Could not write token", e);
+        }
+        catch (Exception e) {
+            failureLog.warn("token cache write failed", "redis", e);
+        }
+    }
+
+    private static String key(String refreshToken) {
+        return TokenKeyGenerator.hash(refreshToken);
+    }
+
+    // what redis holds per refresh token, accessToken is TokenCipher output bound to the key
+    private record StoredToken(String accessToken, long expiresAt) {
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("auth.tokens.cache.hits", hits, LongAdder::sum)
+                .description("Access tokens served from the token cache")
+                .register(registry);
+        FunctionCounter.builder("auth.tokens.renewals", renewed, LongAdder::sum)
+                .description("Access tokens renewed with spotify, ahead of time or on demand")
+                .register(registry);
+        Gauge.builder("auth.tokens.cached", tokens, Cache::estimatedSize)
+                .description("Access tokens cached on this node")
+                .register(registry);
+    }
+}
@@ -0,0 +1,61 @@
+package com.spotifyproject.spotirecap.service;
+
+import com.spotifyproject.spotirecap.exception.SpotifyApiException;
+import com.spotifyproject.spotirecap.model.UserProfile;
+import com.spotifyproject.spotirecap.upstream.SpotifyDispatcher;
+import com.spotifyproject.spotirecap.upstream.SpotifyResponseParser;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.http.*;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestTemplate;
+
+// resolves access tokens to the user behind them, the recap caches are keyed by that user id
+// so they survive token refreshes and never hold a raw token in their keys
+@Service
+public class SpotifyUserService {
+
+    private static final Logger log = LoggerFactory.getLogger(SpotifyUserService.class);
+
+    @Autowired
+    private RestTemplate restTemplate;
+
+    @Value("${spotify.api-base-url:https://api.spotify.com}")
+    private String apiBaseUrl;
+
+    @Autowired
+    private SpotifyDispatcher spotifyDispatcher;
+
+    // keyed by a hash of the token and kept short-lived (cache.ttl.user-profiles), a token only lives an hour anyway
+    @Cacheable(
+            value = "userProfiles",
+            keyGenerator = "tokenKeyGenerator",
+            sync = true
+    )
+    public UserProfile getProfile(String accessToken) {
+        log.debug("cache miss cache=userProfiles");
+        return spotifyDispatcher.execute(() -> fetchProfile(accessToken));
+    }
+
+    private UserProfile fetchProfile(String accessToken) {
+        String userProfileEndpoint = apiBaseUrl + "/v1/me";
+
+        // only id and display_name are read, the rest of the profile is skipped
+        UserProfile profile = restTemplate.execute(
+                userProfileEndpoint,
+                HttpMethod.GET,
+                request -> request.getHeaders().set("Authorization", accessToken),
+                response -> SpotifyResponseParser.parseProfile(response.getBody())
+        );
+
+        if (profile == null) {
+            throw new SpotifyApiException("Failed to fetch user profile from Spotify");
+        }
+
+        return profile;
+    }
+}
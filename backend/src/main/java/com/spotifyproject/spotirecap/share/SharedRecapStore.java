@@ -0,0 +1,153 @@
+package com.spotifyproject.spotirecap.share;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+// published recaps: the JSON is rendered and gzipped once, stored in redis under a short random id
+// (spotirecap:share:<id>) and never changed afterwards. reads hand out those stored bytes as they are, and since
+// nothing can change under an id each node keeps the ones it served in memory without ever invalidating them
+@Component
+public class SharedRecapStore implements MeterBinder {
+
+    private static final String KEY_PREFIX = "spotirecap:share:";
+    // 9 random bytes = 12 url-safe characters, 72 bits so ids can't be guessed or enumerated
+    private static final int ID_BYTES = 9;
+    private static final Pattern ID = Pattern.compile("[A-Za-z0-9_-]{12}");
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final SecureRandom random = new SecureRandom();
+    private final LongAdder localHits = new LongAdder();
+    private final LongAdder redisHits = new LongAdder();
+    private final LongAdder published = new LongAdder();
+
+    // the master: a link is opened right after it's published, a replica may not have it yet
+    @Autowired
+    private RedisConnectionFactory redisConnectionFactory;
+
+    // how long a published recap stays readable, counted from publishing
+    @Value("${share.ttl:365d}")
+    private Duration ttl;
+
+    @Value("${share.local-cache-size:64MB}")
+    private DataSize localCacheSize;
+
+    private Cache<String, byte[]> local;
+
+    @PostConstruct
+    void init() {
+        local = Caffeine.newBuilder()
+                .maximumWeight(localCacheSize.toBytes())
+                .weigher((String id, byte[] gzipped) -> gzipped.length)
+                .expireAfterWrite(ttl)
+                .build();
+    }
+
+    // the recap as gzipped JSON, returns its id
+    public String publish(Object recap) throws IOException {
+        byte[] gzipped = gzip(objectMapper.writeValueAsBytes(recap));
+
+        try (RedisConnection connection = redisConnectionFactory.getConnection()) {
+            // SET NX so an id collision can't overwrite someone else's recap, just draw again
+            for (int attempt = 0; attempt < 3; attempt++) {
+                String id = newId();
+                Boolean stored = connection.stringCommands().set(key(id), gzipped,
+                        Expiration.from(ttl), RedisStringCommands.SetOption.ifAbsent());
+                if (Boolean.TRUE.equals(stored)) {
+                    local.put(id, gzipped);
+                    published.increment();
+                    return id;
+                }
+            }
+        }
+        throw new IllegalStateException("Could not find a free share id");
+    }
+
+    // the gzipped JSON exactly as published, null for an unknown or expired id
+    public byte[] get(String id) {
+        if (!isValidId(id)) {
+            return null;
+        }
+
+        byte[] gzipped = local.getIfPresent(id);
+        if (gzipped != null) {
+            localHits.increment();
+            return gzipped;
+        }
+
+        try (RedisConnection connection = redisConnectionFactory.getConnection()) {
+            gzipped = connection.stringCommands().get(key(id));
+        }
+        if (gzipped != null) {
+            redisHits.increment();
+            local.put(id, gzipped);
+        }
+        return gzipped;
+    }
+
+    public static boolean isValidId(String id) {
+        return id != null && ID.matcher(id).matches();
+    }
+
+    private String newId() {
+        byte[] bytes = new byte[ID_BYTES];
+        random.nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    private static byte[] key(String id) {
+        return (KEY_PREFIX + id).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] gzip(byte[] json) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(json.length / 4);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(json);
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("share.reads", localHits, LongAdder::sum)
+                .tag("source", "local")
+                .description("Shared recaps served, from this node's memory or from redis")
+                .register(registry);
+        FunctionCounter.builder("share.reads", redisHits, LongAdder::sum)
+                .tag("source", "redis")
+                .description("Shared recaps served, from this node's memory or from redis")
+                .register(registry);
+        FunctionCounter.builder("share.published", published, LongAdder::sum)
+                .description("Recaps published for sharing")
+                .register(registry);
+        Gauge.builder("share.local.bytes", this, store -> store.local.policy().eviction()
+                        .map(eviction -> eviction.weightedSize().orElse(0L)).orElse(0L))
+                .description("Bytes of shared recaps held in this node's memory")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+}
@@ -0,0 +1,73 @@
+package com.spotifyproject.spotirecap.upstream;
+
+import java.time.Duration;
+
+// opens after too many consecutive upstream failures, then lets a single probe through once openDuration has passed.
+// whoever gets the probe has to report back (success, failure or releaseProbe), and a probe that hasn't within
+// probeTimeout counts as failed, so a lost probe can't keep the breaker half-open and every call rejected for good
+public class CircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final int failureThreshold;
+    private final Duration openDuration;
+    private final Duration probeTimeout;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private long probeStartedAt;
+
+    public CircuitBreaker(int failureThreshold, Duration openDuration) {
+        this(failureThreshold, openDuration, openDuration);
+    }
+
+    public CircuitBreaker(int failureThreshold, Duration openDuration, Duration probeTimeout) {
+        this.failureThreshold = failureThreshold;
+        this.openDuration = openDuration;
+        this.probeTimeout = probeTimeout;
+    }
+
+    public synchronized boolean allowRequest() {
+        long now = System.nanoTime();
+        if (state == State.HALF_OPEN && now - probeStartedAt >= probeTimeout.toNanos()) {
+            open(now);
+        }
+        if (state == State.OPEN && now - openedAt >= openDuration.toNanos()) {
+            state = State.HALF_OPEN;
+            probeStartedAt = now;
+            return true;
+        }
+        return state == State.CLOSED;
+    }
+
+    public synchronized void recordSuccess() {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+    }
+
+    public synchronized void recordFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            open(System.nanoTime());
+        }
+    }
+
+    // the call ended without finding out anything about upstream (never sent, cancelled...). if it was the probe,
+    // the next caller gets to probe straight away
+    public synchronized void releaseProbe() {
+        if (state == State.HALF_OPEN) {
+            state = State.OPEN;
+            openedAt = System.nanoTime() - openDuration.toNanos();
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    private void open(long now) {
+        state = State.OPEN;
+        openedAt = now;
+    }
+}
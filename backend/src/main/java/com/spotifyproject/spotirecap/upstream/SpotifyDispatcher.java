@@ -0,0 +1,230 @@
+package com.spotifyproject.spotirecap.upstream;
+
+import com.spotifyproject.spotirecap.exception.SpotifyApiException;
+import com.spotifyproject.spotirecap.exception.SpotifyRateLimitedException;
+import com.spotifyproject.spotirecap.exception.SpotifyUnavailableException;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.time.Duration;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+// every spotify call goes through here: one app-wide token bucket sized to our quota, 429s pause the whole app
+// for Retry-After (+ jitter), interactive requests jump the queue ahead of background ones, and a circuit breaker
+// fails calls fast while spotify is failing. the cached callers then get the expired entry from TwoTierCache instead
+@Component
+public class SpotifyDispatcher implements MeterBinder {
+
+    @Value("${spotify.rate-limit.requests-per-second:10}")
+    private double requestsPerSecond;
+
+    @Value("${spotify.rate-limit.burst:20}")
+    private int burst;
+
+    @Value("${spotify.dispatch.workers:16}")
+    private int workerCount;
+
+    @Value("${spotify.dispatch.timeout:15s}")
+    private Duration timeout;
+
+    @Value("${spotify.dispatch.max-retries:2}")
+    private int maxRetries;
+
+    @Value("${spotify.circuit-breaker.failure-threshold:5}")
+    private int failureThreshold;
+
+    @Value("${spotify.circuit-breaker.open-duration:30s}")
+    private Duration openDuration;
+
+    private static final Duration BACKOFF_BASE = Duration.ofMillis(250);
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private TokenBucket tokenBucket;
+    private CircuitBreaker circuitBreaker;
+    private ThreadPoolExecutor workers;
+
+    @PostConstruct
+    void init() {
+        tokenBucket = new TokenBucket(burst, requestsPerSecond);
+        // a probe nobody has heard back from once its caller has given up is treated as failed
+        circuitBreaker = new CircuitBreaker(failureThreshold, openDuration, timeout);
+
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("spotify-dispatch-");
+        threadFactory.setDaemon(true);
+        workers = new ThreadPoolExecutor(workerCount, workerCount, 60, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<>(), threadFactory);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        workers.shutdownNow();
+    }
+
+    public <T> T execute(Supplier<T> call) {
+        if (!circuitBreaker.allowRequest()) {
+            throw new SpotifyUnavailableException("Spotify is unavailable, try again shortly");
+        }
+
+        PrioritizedTask<T> task = new PrioritizedTask<>(UpstreamPriority.current(), sequence.incrementAndGet(),
+                () -> callWithRetries(call));
+        workers.execute(task);
+
+        try {
+            return task.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        }
+        catch (TimeoutException e) {
+            abandon(task);
+            throw new SpotifyUnavailableException("Timed out waiting for Spotify");
+        }
+        catch (InterruptedException e) {
+            abandon(task);
+            Thread.currentThread().interrupt();
+            throw new SpotifyUnavailableException("Interrupted while waiting for Spotify");
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new SpotifyApiException("Spotify request failed: " + e.getCause().getMessage());
+        }
+    }
+
+    public CircuitBreaker.State getCircuitState() {
+        return circuitBreaker.getState();
+    }
+
+    public int getQueueDepth() {
+        return workers.getQueue().size();
+    }
+
+    public int getActiveCount() {
+        return workers.getActiveCount();
+    }
+
+    // how busy the dispatch pool is and how much is waiting on it, plus what the breaker is doing
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("spotify.dispatch.queue", this, SpotifyDispatcher::getQueueDepth)
+                .description("Spotify calls waiting for a dispatch worker")
+                .register(registry);
+        Gauge.builder("spotify.dispatch.active", this, SpotifyDispatcher::getActiveCount)
+                .description("Spotify calls in flight")
+                .register(registry);
+        Gauge.builder("spotify.dispatch.workers", this, dispatcher -> dispatcher.workers.getMaximumPoolSize())
+                .register(registry);
+        for (CircuitBreaker.State state : CircuitBreaker.State.values()) {
+            Gauge.builder("spotify.circuit.state", this, dispatcher -> dispatcher.getCircuitState() == state ? 1 : 0)
+                    .tag("state", state.name())
+                    .register(registry);
+        }
+    }
+
+    // the call may be the breaker's half-open probe, so every way out of here reports to the breaker, otherwise
+    // the breaker waits on the probe until it gives up on it and every call in between is rejected
+    private <T> T callWithRetries(Supplier<T> call) throws InterruptedException {
+        boolean reported = false;
+        try {
+            for (int attempt = 0; ; attempt++) {
+                if (!tokenBucket.acquire(timeout)) {
+                    throw new SpotifyRateLimitedException("Spotify request budget exhausted", Duration.ofSeconds(1));
+                }
+
+                try {
+                    T result = call.get();
+                    circuitBreaker.recordSuccess();
+                    reported = true;
+                    return result;
+                }
+                catch (HttpClientErrorException.TooManyRequests e) {
+                    // spotify answered, it's up and only pushing back, which the token bucket takes care of
+                    circuitBreaker.recordSuccess();
+                    reported = true;
+
+                    // app-wide limit, everyone waits, not just this request
+                    Duration retryAfter = retryAfter(e);
+                    tokenBucket.pauseFor(retryAfter);
+
+                    if (attempt >= maxRetries || retryAfter.compareTo(timeout) > 0) {
+                        throw new SpotifyRateLimitedException("Spotify rate limit reached", retryAfter);
+                    }
+                    Thread.sleep(retryAfter.plus(jitter(attempt)).toMillis());
+                }
+                catch (HttpServerErrorException | ResourceAccessException e) {
+                    circuitBreaker.recordFailure();
+                    reported = true;
+                    throw new SpotifyUnavailableException("Spotify is unavailable, try again shortly");
+                }
+                catch (HttpClientErrorException e) {
+                    // a 4xx is about this request (bad/expired token...), spotify itself is fine
+                    circuitBreaker.recordSuccess();
+                    reported = true;
+                    throw e;
+                }
+            }
+        }
+        finally {
+            // no budget, cancelled, interrupted, a response we couldn't parse: nothing learned about spotify either way
+            if (!reported) {
+                circuitBreaker.releaseProbe();
+            }
+        }
+    }
+
+    // the caller stopped waiting. a task still in the queue never runs, so it can't report to the breaker itself
+    private void abandon(PrioritizedTask<?> task) {
+        if (workers.remove(task)) {
+            circuitBreaker.releaseProbe();
+        }
+        task.cancel(true);
+    }
+
+    private static Duration retryAfter(HttpClientErrorException e) {
+        HttpHeaders headers = e.getResponseHeaders();
+        String retryAfter = headers != null ? headers.getFirst(HttpHeaders.RETRY_AFTER) : null;
+        try {
+            return Duration.ofSeconds(retryAfter != null ? Long.parseLong(retryAfter.trim()) : 1);
+        }
+        catch (NumberFormatException ex) {
+            return Duration.ofSeconds(1);
+        }
+    }
+
+    // full jitter on an exponential step so retries from many requests don't land on spotify at the same instant
+    private static Duration jitter(int attempt) {
+        long maxMillis = BACKOFF_BASE.toMillis() << Math.min(attempt, 6);
+        return Duration.ofMillis(ThreadLocalRandom.current().nextLong(maxMillis + 1));
+    }
+
+    private static class PrioritizedTask<T> extends FutureTask<T> implements Comparable<PrioritizedTask<?>> {
+
+        private final UpstreamPriority priority;
+        private final long sequence;
+
+        PrioritizedTask(UpstreamPriority priority, long sequence, Callable<T> callable) {
+            super(callable);
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        // interactive first, then first come first served
+        @Override
+        public int compareTo(PrioritizedTask<?> other) {
+            int byPriority = Integer.compare(priority.ordinal(), other.priority.ordinal());
+            return byPriority != 0 ? byPriority : Long.compare(sequence, other.sequence);
+        }
+    }
+}
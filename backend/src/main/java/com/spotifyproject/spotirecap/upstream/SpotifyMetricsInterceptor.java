@@ -0,0 +1,62 @@
+package com.spotifyproject.spotirecap.upstream;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import org.springframework.http.HttpRequest;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.IOException;
+
+// times every single HTTP exchange with spotify (retries count separately) as spotify.client.requests,
+// tagged by endpoint path and status. stops at the response headers, body streaming is the parser's time
+public class SpotifyMetricsInterceptor implements ClientHttpRequestInterceptor {
+
+    public static final String METRIC_NAME = "spotify.client.requests";
+
+    private final MeterRegistry meterRegistry;
+
+    public SpotifyMetricsInterceptor(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution) throws IOException {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String status = "IO_ERROR";
+        String outcome = "UNKNOWN";
+
+        try {
+            ClientHttpResponse response = execution.execute(request, body);
+            int code = response.getStatusCode().value();
+            status = String.valueOf(code);
+            outcome = outcome(code);
+            return response;
+        }
+        finally {
+            // the path is fixed per endpoint (/v1/me/top/tracks, /api/token...), the query string is left out
+            sample.stop(Timer.builder(METRIC_NAME)
+                    .description("HTTP calls to the Spotify Web and Accounts APIs")
+                    .tag("endpoint", request.getURI().getPath())
+                    .tag("method", request.getMethod().name())
+                    .tag("status", status)
+                    .tag("outcome", outcome)
+                    .register(meterRegistry));
+        }
+    }
+
+    private static String outcome(int code) {
+        if (code == 429) {
+            return "RATE_LIMITED";
+        }
+        if (code >= 500) {
+            return "SERVER_ERROR";
+        }
+        if (code >= 400) {
+            return "CLIENT_ERROR";
+        }
+        return code >= 200 && code < 300 ? "SUCCESS" : "UNKNOWN";
+    }
+}
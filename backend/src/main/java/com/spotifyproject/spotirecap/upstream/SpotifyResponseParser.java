@@ -0,0 +1,214 @@
+package com.spotifyproject.spotirecap.upstream;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.spotifyproject.spotirecap.model.ImageVariant;
+import com.spotifyproject.spotirecap.model.TopArtist;
+import com.spotifyproject.spotirecap.model.TopTrack;
+import com.spotifyproject.spotirecap.model.UserProfile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+// streams spotify's BULKY responses straight into our records, everything we don't use
+// (available_markets, external_urls, image heights...) is skipped without ever being materialized
+public final class SpotifyResponseParser {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private SpotifyResponseParser() {
+    }
+
+    // GET /v1/me/top/tracks
+    public static List<TopTrack> parseTopTracks(InputStream body) throws IOException {
+        List<TopTrack> tracks = new ArrayList<>();
+        try (JsonParser parser = JSON_FACTORY.createParser(body)) {
+            forEachItem(parser, () -> tracks.add(parseTrack(parser)));
+        }
+        return tracks;
+    }
+
+    // GET /v1/me/top/artists
+    public static List<TopArtist> parseTopArtists(InputStream body) throws IOException {
+        List<TopArtist> artists = new ArrayList<>();
+        try (JsonParser parser = JSON_FACTORY.createParser(body)) {
+            forEachItem(parser, () -> artists.add(parseArtist(parser)));
+        }
+        return artists;
+    }
+
+    // GET /v1/me
+    public static UserProfile parseProfile(InputStream body) throws IOException {
+        String id = null;
+        String displayName = null;
+
+        try (JsonParser parser = JSON_FACTORY.createParser(body)) {
+            expect(parser.nextToken(), JsonToken.START_OBJECT);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+                switch (field) {
+                    case "id" -> id = parser.getValueAsString();
+                    case "display_name" -> displayName = parser.getValueAsString();
+                    default -> parser.skipChildren();
+                }
+            }
+        }
+        return new UserProfile(id, displayName);
+    }
+
+    private static TopTrack parseTrack(JsonParser parser) throws IOException {
+        String id = null;
+        String name = null;
+        StringBuilder artistNames = new StringBuilder();
+        List<ImageVariant> albumImages = List.of();
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            switch (field) {
+                case "id" -> id = parser.getValueAsString();
+                case "name" -> name = parser.getValueAsString();
+                case "artists" -> {
+                    while (isArray(parser) && parser.nextToken() == JsonToken.START_OBJECT) {
+                        String artistName = parseNameOnly(parser);
+                        if (artistName != null) {
+                            if (!artistNames.isEmpty()) {
+                                artistNames.append(", ");
+                            }
+                            artistNames.append(artistName);
+                        }
+                    }
+                }
+                case "album" -> albumImages = parseAlbumImages(parser);
+                default -> parser.skipChildren();
+            }
+        }
+        return new TopTrack(id, name, artistNames.toString(), largestUrl(albumImages), albumImages);
+    }
+
+    private static TopArtist parseArtist(JsonParser parser) throws IOException {
+        String id = null;
+        String name = null;
+        List<ImageVariant> images = List.of();
+        List<String> genres = new ArrayList<>();
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            switch (field) {
+                case "id" -> id = parser.getValueAsString();
+                case "name" -> name = parser.getValueAsString();
+                case "images" -> images = parseImages(parser);
+                case "genres" -> {
+                    while (isArray(parser) && parser.nextToken() == JsonToken.VALUE_STRING) {
+                        genres.add(parser.getText());
+                    }
+                }
+                default -> parser.skipChildren();
+            }
+        }
+        return new TopArtist(id, name, largestUrl(images), genres, images);
+    }
+
+    private static List<ImageVariant> parseAlbumImages(JsonParser parser) throws IOException {
+        List<ImageVariant> images = List.of();
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            return images;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            if ("images".equals(field)) {
+                images = parseImages(parser);
+            }
+            else {
+                parser.skipChildren();
+            }
+        }
+        return images;
+    }
+
+    // every size spotify offers (usually 640/300/64), the caller picks one per request
+    private static List<ImageVariant> parseImages(JsonParser parser) throws IOException {
+        List<ImageVariant> images = new ArrayList<>(3);
+        while (isArray(parser) && parser.nextToken() == JsonToken.START_OBJECT) {
+            String url = null;
+            int width = 0;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+                switch (field) {
+                    case "url" -> url = parser.getValueAsString();
+                    case "width" -> width = parser.getValueAsInt();
+                    default -> parser.skipChildren();
+                }
+            }
+            if (url != null) {
+                images.add(new ImageVariant(url, width));
+            }
+        }
+        return images;
+    }
+
+    // spotify lists images largest first, that one stays the default like before
+    private static String largestUrl(List<ImageVariant> images) {
+        return images.isEmpty() ? null : images.get(0).url();
+    }
+
+    private static String parseNameOnly(JsonParser parser) throws IOException {
+        return parseStringField(parser, "name");
+    }
+
+    // reads one object (parser on its START_OBJECT) and returns the given string field, skipping everything else
+    private static String parseStringField(JsonParser parser, String wanted) throws IOException {
+        String value = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            if (wanted.equals(field)) {
+                value = parser.getValueAsString();
+            }
+            else {
+                parser.skipChildren();
+            }
+        }
+        return value;
+    }
+
+    // walks {"items": [ {...}, {...} ], ...} and hands each item to the reader with the parser on its START_OBJECT
+    private static void forEachItem(JsonParser parser, ItemReader reader) throws IOException {
+        expect(parser.nextToken(), JsonToken.START_OBJECT);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            if ("items".equals(field)) {
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    reader.read();
+                }
+            }
+            else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    // true while the parser sits inside an array, so a null where spotify normally sends [] reads as empty
+    private static boolean isArray(JsonParser parser) {
+        return parser.getParsingContext().inArray();
+    }
+
+    private static void expect(JsonToken actual, JsonToken expected) throws IOException {
+        if (actual != expected) {
+            throw new IOException("Unexpected Spotify response, expected " + expected + " but got " + actual);
+        }
+    }
+
+    @FunctionalInterface
+    private interface ItemReader {
+        void read() throws IOException;
+    }
+}
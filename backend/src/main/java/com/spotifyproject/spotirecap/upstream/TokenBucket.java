@@ -0,0 +1,67 @@
+package com.spotifyproject.spotirecap.upstream;
+
+import java.time.Duration;
+
+// app-wide request budget towards spotify, refilled continuously, plus a hard pause when spotify sends Retry-After
+public class TokenBucket {
+
+    private final double capacity;
+    private final double refillPerNanos;
+
+    private double tokens;
+    private long lastRefill;
+    private long pausedUntil;
+
+    public TokenBucket(int capacity, double refillPerSecond) {
+        this.capacity = capacity;
+        this.refillPerNanos = refillPerSecond / Duration.ofSeconds(1).toNanos();
+        this.tokens = capacity;
+        this.lastRefill = System.nanoTime();
+    }
+
+    // blocks until a token is free, returns false if that would take longer than maxWait
+    public boolean acquire(Duration maxWait) throws InterruptedException {
+        long deadline = System.nanoTime() + maxWait.toNanos();
+
+        while (true) {
+            long waitNanos;
+            synchronized (this) {
+                long now = System.nanoTime();
+                refill(now);
+
+                if (now < pausedUntil) {
+                    waitNanos = pausedUntil - now;
+                }
+                else if (tokens >= 1) {
+                    tokens -= 1;
+                    return true;
+                }
+                else {
+                    waitNanos = (long) Math.ceil((1 - tokens) / refillPerNanos);
+                }
+            }
+
+            if (System.nanoTime() + waitNanos > deadline) {
+                return false;
+            }
+            Thread.sleep(Math.max(1, Duration.ofNanos(waitNanos).toMillis()));
+        }
+    }
+
+    // spotify told us to back off, nobody gets a token until then and the bucket restarts empty
+    public synchronized void pauseFor(Duration pause) {
+        long until = System.nanoTime() + pause.toNanos();
+        if (until > pausedUntil) {
+            pausedUntil = until;
+            tokens = 0;
+            lastRefill = until;
+        }
+    }
+
+    private void refill(long now) {
+        if (now > lastRefill) {
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * refillPerNanos);
+            lastRefill = now;
+        }
+    }
+}
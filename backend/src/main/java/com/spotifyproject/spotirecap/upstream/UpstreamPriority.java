@@ -0,0 +1,38 @@
+package com.spotifyproject.spotirecap.upstream;
+
+import java.util.concurrent.Callable;
+
+// who is waiting on an upstream call, user-facing requests always go ahead of background work
+public enum UpstreamPriority {
+    INTERACTIVE,
+    BACKGROUND;
+
+    private static final ThreadLocal<UpstreamPriority> CURRENT = ThreadLocal.withInitial(() -> INTERACTIVE);
+
+    public static UpstreamPriority current() {
+        return CURRENT.get();
+    }
+
+    // runs the call with this priority for every upstream request it makes on the current thread
+    public <T> T call(Callable<T> call) throws Exception {
+        UpstreamPriority previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            return call.call();
+        }
+        finally {
+            CURRENT.set(previous);
+        }
+    }
+
+    public void run(Runnable task) {
+        UpstreamPriority previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            task.run();
+        }
+        finally {
+            CURRENT.set(previous);
+        }
+    }
+}
@@ -0,0 +1,5 @@
+package com.spotifyproject.spotirecap.warmup;
+
+// lastSeen is the last sign-in or token refresh, in epoch millis
+public record ActiveUser(String userId, String refreshToken, long lastSeen) {
+}
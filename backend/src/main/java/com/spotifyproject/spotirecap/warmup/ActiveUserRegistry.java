@@ -0,0 +1,86 @@
+package com.spotifyproject.spotirecap.warmup;
+
+import com.spotifyproject.spotirecap.security.TokenCipher;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+// users who signed in recently, scored by when we last saw them, plus the refresh token the warm-up job signs in with.
+// like the history consent registry the tokens are encrypted (TokenCipher) and bound to the user id
+@Component
+public class ActiveUserRegistry {
+
+    private static final String ACTIVE_KEY = "spotirecap:warmup:active";
+    private static final String TOKENS_KEY = "spotirecap:warmup:tokens";
+    private static final int PRUNE_BATCH = 1000;
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    @Autowired
+    private TokenCipher tokenCipher;
+
+    public void recordActivity(String userId, String refreshToken, long at) {
+        redisTemplate.opsForHash().put(TOKENS_KEY, userId, tokenCipher.encrypt(refreshToken, userId));
+        redisTemplate.opsForZSet().add(ACTIVE_KEY, userId, at);
+    }
+
+    // spotify rotated it, only written if the user is still registered
+    public void updateRefreshToken(String userId, String refreshToken) {
+        if (redisTemplate.opsForZSet().score(ACTIVE_KEY, userId) != null) {
+            redisTemplate.opsForHash().put(TOKENS_KEY, userId, tokenCipher.encrypt(refreshToken, userId));
+        }
+    }
+
+    public void forget(String userId) {
+        redisTemplate.opsForZSet().remove(ACTIVE_KEY, userId);
+        redisTemplate.opsForHash().delete(TOKENS_KEY, userId);
+    }
+
+    public long countActive(long from, long to) {
+        Long count = redisTemplate.opsForZSet().count(ACTIVE_KEY, from, to);
+        return count != null ? count : 0;
+    }
+
+    // users seen in [from, to] in last-seen order, skipping the first `skip` of them. the refresh token is null
+    // for anyone forgotten in the meantime or whose token doesn't decrypt, they stay in the page so the caller's
+    // cursor still lines up
+    public List<ActiveUser> page(long from, long to, long skip, int count) {
+        Set<ZSetOperations.TypedTuple<String>> entries = redisTemplate.opsForZSet()
+                .rangeByScoreWithScores(ACTIVE_KEY, from, to, skip, count);
+        if (entries == null || entries.isEmpty()) {
+            return List.of();
+        }
+
+        List<Object> userIds = new ArrayList<>();
+        entries.forEach(entry -> userIds.add(entry.getValue()));
+        List<Object> refreshTokens = redisTemplate.opsForHash().multiGet(TOKENS_KEY, userIds);
+
+        List<ActiveUser> users = new ArrayList<>();
+        int i = 0;
+        for (ZSetOperations.TypedTuple<String> entry : entries) {
+            String sealed = (String) refreshTokens.get(i++);
+            String refreshToken = sealed != null ? tokenCipher.decrypt(sealed, entry.getValue()) : null;
+            users.add(new ActiveUser(entry.getValue(), refreshToken, entry.getScore().longValue()));
+        }
+        return users;
+    }
+
+    // drops everyone not seen since the cutoff, tokens included
+    public void pruneInactive(long cutoff) {
+        while (true) {
+            Set<String> stale = redisTemplate.opsForZSet().rangeByScore(ACTIVE_KEY, Double.NEGATIVE_INFINITY, cutoff, 0, PRUNE_BATCH);
+            if (stale == null || stale.isEmpty()) {
+                return;
+            }
+            redisTemplate.opsForHash().delete(TOKENS_KEY, stale.toArray());
+            redisTemplate.opsForZSet().remove(ACTIVE_KEY, stale.toArray());
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package com.spotifyproject.spotirecap.warmup;
+
+import com.spotifyproject.spotirecap.exception.SpotifyRateLimitedException;
+import com.spotifyproject.spotirecap.exception.SpotifyUnavailableException;
+import com.spotifyproject.spotirecap.logging.LogSampler;
+import com.spotifyproject.spotirecap.service.CacheWarmupService;
+import com.spotifyproject.spotirecap.upstream.CircuitBreaker;
+import com.spotifyproject.spotirecap.upstream.SpotifyDispatcher;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+// pre-populates the recap caches of recently active users in the window right before the daily peak, so the peak
+// finds them warm instead of every user paying full spotify latency. the window plus the soft TTL is shorter than the
+// cache TTLs, so everything warmed (or left alone as still fresh) in it is still cached when the peak starts, and
+// what's past its soft TTL by then is served while it refreshes. one node runs it at a time (redis lock), users are walked
+// page by page with a checkpoint after each page, and a run that stops (end of the tick, spotify pushing back,
+// node going away) is resumed from there by the next tick on any node. only warmup.parallelism users are warmed at
+// once and everything runs as BACKGROUND, so the dispatcher keeps serving interactive requests first
+@Component
+public class CacheWarmupJob implements MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(CacheWarmupJob.class);
+    private static final Duration LOCK_TTL = Duration.ofMinutes(5);
+
+    private final LogSampler failureLog = new LogSampler(log, Duration.ofMinutes(1), 5);
+    private final String owner = UUID.randomUUID().toString();
+
+    private final Map<Result, LongAdder> results = new ConcurrentHashMap<>();
+    private final AtomicReference<WarmupProgress> lastProgress = new AtomicReference<>();
+
+    @Autowired
+    private ActiveUserRegistry activeUsers;
+
+    @Autowired
+    private WarmupRunStore runStore;
+
+    @Autowired
+    private CacheWarmupService warmupService;
+
+    @Autowired
+    private SpotifyDispatcher spotifyDispatcher;
+
+    @Autowired
+    private ThreadPoolTaskExecutor cacheWarmupExecutor;
+
+    @Value("${warmup.enabled:true}")
+    private boolean enabled;
+
+    // when users come back, e.g. 18:00, and how long before that the warm-up may start
+    @Value("${warmup.peak-time:18:00}")
+    private String peakTime;
+
+    @Value("${warmup.lead-time:40m}")
+    private Duration leadTime;
+
+    @Value("${warmup.zone:UTC}")
+    private String zone;
+
+    @Value("${cache.ttl.top-tracks:1h}")
+    private Duration topTracksTtl;
+
+    @Value("${cache.ttl.top-artists:1h}")
+    private Duration topArtistsTtl;
+
+    @Value("${cache.ttl.top-genres:1h}")
+    private Duration topGenresTtl;
+
+    @Value("${cache.soft-ttl.top-tracks:15m}")
+    private Duration topTracksSoftTtl;
+
+    @Value("${cache.soft-ttl.top-artists:15m}")
+    private Duration topArtistsSoftTtl;
+
+    @Value("${cache.soft-ttl.top-genres:15m}")
+    private Duration topGenresSoftTtl;
+
+    private WarmupWindow window;
+
+    // a new run starts at most this often, ticks in between only resume an unfinished one
+    @Value("${warmup.interval:20h}")
+    private Duration interval;
+
+    @Value("${warmup.active-window:14d}")
+    private Duration activeWindow;
+
+    @Value("${warmup.page-size:100}")
+    private int pageSize;
+
+    // how long one tick may keep going before it checkpoints and leaves the rest to the next tick
+    @Value("${warmup.max-run-time:10m}")
+    private Duration maxRunTime;
+
+    enum Result {
+        WARMED, FAILED, REVOKED, DEFERRED
+    }
+
+    @PostConstruct
+    void init() {
+        window = new WarmupWindow(LocalTime.parse(peakTime), leadTime, ZoneId.of(zone));
+        window.checkFits("topTracks", topTracksSoftTtl, topTracksTtl);
+        window.checkFits("artistSnapshots", topArtistsSoftTtl, topArtistsTtl);
+        window.checkFits("topGenres", topGenresSoftTtl, topGenresTtl);
+    }
+
+    // ticks all day, but only does anything inside the window
+    @Scheduled(fixedDelayString = "${warmup.tick:PT5M}", initialDelayString = "${warmup.tick:PT5M}")
+    public void warmActiveUsers() {
+        if (!enabled || !window.contains(Instant.now())) {
+            return;
+        }
+
+        try {
+            if (!runStore.tryLock(owner, LOCK_TTL)) {
+                return;
+            }
+            try {
+                run();
+            }
+            finally {
+                runStore.releaseLock(owner);
+            }
+        }
+        catch (Exception e) {
+            // redis is down, the checkpoint of the last finished page is still there for the next tick
+            failureLog.warn("cache warm-up run failed", "warm-up", e);
+        }
+    }
+
+    private void run() {
+        long now = System.currentTimeMillis();
+        WarmupProgress progress = runStore.loadCheckpoint();
+        if (progress == null) {
+            Long lastCompleted = runStore.lastCompleted();
+            if (lastCompleted != null && now - lastCompleted < interval.toMillis()) {
+                return;
+            }
+            long activeSince = now - activeWindow.toMillis();
+            activeUsers.pruneInactive(activeSince - 1);
+            progress = WarmupProgress.start(now, activeSince, activeUsers.countActive(activeSince, now));
+            runStore.saveCheckpoint(progress, interval);
+            log.info("cache warm-up started activeUsers={}", progress.total());
+        }
+        lastProgress.set(progress);
+
+        // stops at the peak too, whatever is left waits for tomorrow's window rather than warming into the peak
+        long deadline = Math.min(now + maxRunTime.toMillis(), window.nextPeak(Instant.ofEpochMilli(now)).toEpochMilli());
+        while (System.currentTimeMillis() < deadline) {
+            // no point queueing up work for a spotify that is already failing, the next tick picks up from here
+            if (spotifyDispatcher.getCircuitState() != CircuitBreaker.State.CLOSED) {
+                log.info("cache warm-up paused, circuit {}", spotifyDispatcher.getCircuitState());
+                return;
+            }
+
+            List<ActiveUser> page = activeUsers.page(progress.cursor(), progress.startedAt(), progress.cursorTies(), pageSize);
+            if (page.isEmpty()) {
+                runStore.complete(progress);
+                log.info("cache warm-up finished warmed={} failed={} revoked={} coverage={}%",
+                        progress.warmed(), progress.failed(), progress.revoked(), Math.round(progress.coverage()));
+                return;
+            }
+
+            Map<Result, Long> pageResults = warmPage(page);
+            if (pageResults.getOrDefault(Result.DEFERRED, 0L) > 0) {
+                // rate limited: the page is redone next tick, users that did make it are cache hits by then.
+                // only the deferrals are counted, the rest of the page is counted once it goes through
+                count(Result.DEFERRED, pageResults.get(Result.DEFERRED));
+                log.info("cache warm-up paused, Spotify is rate limiting");
+                return;
+            }
+
+            progress = progress.advance(page, pageResults.getOrDefault(Result.WARMED, 0L),
+                    pageResults.getOrDefault(Result.FAILED, 0L), pageResults.getOrDefault(Result.REVOKED, 0L));
+            runStore.saveCheckpoint(progress, interval);
+            lastProgress.set(progress);
+            pageResults.forEach(this::count);
+
+            if (!runStore.renewLock(owner, LOCK_TTL)) {
+                return;
+            }
+        }
+    }
+
+    private Map<Result, Long> warmPage(List<ActiveUser> page) {
+        List<CompletableFuture<Result>> pending = new ArrayList<>();
+        for (ActiveUser user : page) {
+            pending.add(CompletableFuture.supplyAsync(() -> warm(user), cacheWarmupExecutor));
+        }
+
+        Map<Result, Long> pageResults = new EnumMap<>(Result.class);
+        for (CompletableFuture<Result> future : pending) {
+            Result result = future.join();
+            pageResults.merge(result, 1L, Long::sum);
+        }
+        return pageResults;
+    }
+
+    private void count(Result result, long users) {
+        results.computeIfAbsent(result, r -> new LongAdder()).add(users);
+    }
+
+    private Result warm(ActiveUser user) {
+        if (user.refreshToken() == null) {
+            return Result.REVOKED;
+        }
+
+        try {
+            return warmupService.warm(user.userId(), user.refreshToken()) ? Result.WARMED : Result.REVOKED;
+        }
+        catch (HttpClientErrorException.BadRequest | HttpClientErrorException.Unauthorized e) {
+            // invalid_grant: the user revoked our app on spotify's side
+            activeUsers.forget(user.userId());
+            return Result.REVOKED;
+        }
+        catch (SpotifyRateLimitedException | SpotifyUnavailableException e) {
+            return Result.DEFERRED;
+        }
+        catch (Exception e) {
+            failureLog.warn("cache warm-up failed", user.userId(), e);
+            return Result.FAILED;
+        }
+    }
+
+    // coverage is for the current (or last) run and survives restarts through the checkpoint, NaN until a run was seen
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("warmup.coverage", lastProgress, progress -> progress.get() != null ? progress.get().coverage() : Double.NaN)
+                .description("Share of active users whose recap caches the warm-up run has filled")
+                .baseUnit("percent")
+                .register(registry);
+        Gauge.builder("warmup.active.users", lastProgress, progress -> progress.get() != null ? progress.get().total() : Double.NaN)
+                .description("Active users the warm-up run covers")
+                .register(registry);
+        for (Result result : Result.values()) {
+            FunctionCounter.builder("warmup.users", results.computeIfAbsent(result, r -> new LongAdder()), LongAdder::sum)
+                    .tag("result", result.name().toLowerCase())
+                    .register(registry);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.spotifyproject.spotirecap.warmup;
+
+import java.util.List;
+
+// checkpoint of one warm-up run. users are walked in last-seen order, the cursor is the last-seen time reached so far
+// plus how many users with exactly that time are already done, so a resumed run neither skips nor repeats ties
+record WarmupProgress(long startedAt, long cursor, long cursorTies, long total, long warmed, long failed, long revoked) {
+
+    // everyone seen between activeSince and the start of the run, anyone seen later is warm from their own requests
+    static WarmupProgress start(long startedAt, long activeSince, long total) {
+        return new WarmupProgress(startedAt, activeSince, 0, total, 0, 0, 0);
+    }
+
+    WarmupProgress advance(List<ActiveUser> page, long pageWarmed, long pageFailed, long pageRevoked) {
+        long last = page.get(page.size() - 1).lastSeen();
+        long ties = page.stream().filter(user -> user.lastSeen() == last).count();
+        if (last == cursor) {
+            ties += cursorTies;
+        }
+        return new WarmupProgress(startedAt, last, ties, total,
+                warmed + pageWarmed, failed + pageFailed, revoked + pageRevoked);
+    }
+
+    // share of the run's active users whose recaps are warm, revoked users don't count against it
+    double coverage() {
+        long eligible = total - revoked;
+        return eligible > 0 ? Math.min(100.0, warmed * 100.0 / eligible) : 100.0;
+    }
+}
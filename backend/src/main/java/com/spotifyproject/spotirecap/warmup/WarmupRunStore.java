@@ -0,0 +1,85 @@
+package com.spotifyproject.spotirecap.warmup;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+// cross-node state of the warm-up job:
+//   spotirecap:warmup:lock            node currently running the job, expires unless renewed after every page
+//   spotirecap:warmup:checkpoint      hash of the unfinished run's WarmupProgress, resumed by whoever runs next
+//   spotirecap:warmup:last-completed  start time of the last run that got through everyone
+@Component
+public class WarmupRunStore {
+
+    private static final String LOCK_KEY = "spotirecap:warmup:lock";
+    private static final String CHECKPOINT_KEY = "spotirecap:warmup:checkpoint";
+    private static final String LAST_COMPLETED_KEY = "spotirecap:warmup:last-completed";
+
+    // only the owner may renew or release, same as RedisCacheLock
+    private static final DefaultRedisScript<Long> RENEW_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('pexpire', KEYS[1], ARGV[2]) else return 0 end",
+            Long.class);
+    private static final DefaultRedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) else return 0 end",
+            Long.class);
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    boolean tryLock(String owner, Duration ttl) {
+        return Boolean.TRUE.equals(redisTemplate.opsForValue().setIfAbsent(LOCK_KEY, owner, ttl));
+    }
+
+    // false once the lock expired and maybe went to another node, the caller has to stop then
+    boolean renewLock(String owner, Duration ttl) {
+        Long renewed = redisTemplate.execute(RENEW_SCRIPT, List.of(LOCK_KEY), owner, String.valueOf(ttl.toMillis()));
+        return renewed != null && renewed == 1;
+    }
+
+    void releaseLock(String owner) {
+        redisTemplate.execute(RELEASE_SCRIPT, List.of(LOCK_KEY), owner);
+    }
+
+    WarmupProgress loadCheckpoint() {
+        Map<Object, Object> fields = redisTemplate.opsForHash().entries(CHECKPOINT_KEY);
+        if (fields.isEmpty()) {
+            return null;
+        }
+        return new WarmupProgress(field(fields, "startedAt"), field(fields, "cursor"), field(fields, "cursorTies"),
+                field(fields, "total"), field(fields, "warmed"), field(fields, "failed"), field(fields, "revoked"));
+    }
+
+    // expires with the run, a run that can't finish within its interval is dropped and the next one starts fresh
+    void saveCheckpoint(WarmupProgress progress, Duration ttl) {
+        redisTemplate.opsForHash().putAll(CHECKPOINT_KEY, Map.of(
+                "startedAt", String.valueOf(progress.startedAt()),
+                "cursor", String.valueOf(progress.cursor()),
+                "cursorTies", String.valueOf(progress.cursorTies()),
+                "total", String.valueOf(progress.total()),
+                "warmed", String.valueOf(progress.warmed()),
+                "failed", String.valueOf(progress.failed()),
+                "revoked", String.valueOf(progress.revoked())
+        ));
+        redisTemplate.expire(CHECKPOINT_KEY, ttl);
+    }
+
+    void complete(WarmupProgress progress) {
+        redisTemplate.opsForValue().set(LAST_COMPLETED_KEY, String.valueOf(progress.startedAt()));
+        redisTemplate.delete(CHECKPOINT_KEY);
+    }
+
+    Long lastCompleted() {
+        String lastCompleted = redisTemplate.opsForValue().get(LAST_COMPLETED_KEY);
+        return lastCompleted != null ? Long.valueOf(lastCompleted) : null;
+    }
+
+    private static long field(Map<Object, Object> fields, String name) {
+        Object value = fields.get(name);
+        return value != null ? Long.parseLong((String) value) : 0;
+    }
+}
@@ -0,0 +1,39 @@
+package com.spotifyproject.spotirecap.warmup;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+
+// the daily stretch of lead time right before the peak in which the warm-up runs. it has to be short enough that
+// whatever is warmed at its start hasn't expired again by the peak
+record WarmupWindow(LocalTime peak, Duration lead, ZoneId zone) {
+
+    WarmupWindow {
+        if (lead.isNegative() || lead.isZero() || lead.compareTo(Duration.ofDays(1)) >= 0) {
+            throw new IllegalArgumentException("warmup.lead-time must be between 0 and 24h, was " + lead);
+        }
+    }
+
+    // the peak this instant leads up to, i.e. the next one at or after it
+    Instant nextPeak(Instant at) {
+        ZonedDateTime local = at.atZone(zone);
+        ZonedDateTime peakThatDay = local.with(peak);
+        return (peakThatDay.isBefore(local) ? peakThatDay.plusDays(1) : peakThatDay).toInstant();
+    }
+
+    // [peak - lead, peak)
+    boolean contains(Instant at) {
+        Instant peakAt = nextPeak(at);
+        return at.isBefore(peakAt) && !at.isBefore(peakAt.minus(lead));
+    }
+
+    // the warm-up leaves an entry that is still fresh (under softTtl) alone, so that one has to last lead + softTtl
+    void checkFits(String cacheName, Duration softTtl, Duration ttl) {
+        if (lead.plus(softTtl).compareTo(ttl) >= 0) {
+            throw new IllegalStateException("warmup.lead-time (" + lead + ") plus the soft TTL of " + cacheName + " (" + softTtl
+                    + ") must be shorter than its TTL (" + ttl + "), or warmed entries expire before the peak");
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.spotifyproject.spotirecap;
+
+import com.spotifyproject.spotirecap.simulator.SpotifyApiSimulator;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// a slow spotify ties up the upstream request pool, not tomcat's request threads
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+class AsyncRequestThreadsTests {
+
+    private static final Duration UPSTREAM_LATENCY = Duration.ofMillis(1500);
+    private static final int IN_FLIGHT = 24;
+
+    private static SpotifyApiSimulator simulator;
+
+    @LocalServerPort
+    private int port;
+
+    @BeforeAll
+    static void startSimulator() {
+        simulator = SpotifyApiSimulator.start(0);
+    }
+
+    @AfterAll
+    static void stopSimulator() {
+        simulator.close();
+    }
+
+    @DynamicPropertySource
+    static void spotifyProperties(DynamicPropertyRegistry registry) {
+        registry.add("spotify.accounts-base-url", () -> simulator.getBaseUrl());
+        registry.add("spotify.api-base-url", () -> simulator.getBaseUrl());
+        registry.add("spotify.client-id", () -> "simulated-client");
+        registry.add("spotify.client-secret", () -> "simulated-secret");
+        registry.add("spotify.dispatch.max-retries", () -> 0);
+        // fewer tomcat threads than requests in flight: if they were held, the extra requests would queue behind them
+        registry.add("server.tomcat.threads.max", () -> 8);
+        registry.add("server.tomcat.threads.min-spare", () -> 2);
+    }
+
+    @Test
+    void requestThreadsAreNotHeldWhileSpotifyIsSlow() throws Exception {
+        simulator.latency(UPSTREAM_LATENCY, UPSTREAM_LATENCY);
+        HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(2)).build();
+
+        // a different token each, so nothing is shared through the cache or the dispatcher's coalescing
+        List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+        for (int i = 0; i < IN_FLIGHT; i++) {
+            responses.add(client.sendAsync(get("/api/top-tracks?amount=5", "sim-held-" + i), HttpResponse.BodyHandlers.ofString()));
+        }
+
+        // give them time to reach the simulator, then look at who is waiting on it
+        Thread.sleep(UPSTREAM_LATENCY.toMillis() / 2);
+        assertEquals(0, requestThreadsInAppCode(), "tomcat threads held by the app while spotify is slow");
+        assertTrue(threadsNamed("upstream-request-") > 0, "nothing is waiting on spotify, the test measured nothing");
+
+        // and tomcat still has threads for everything else
+        long start = System.nanoTime();
+        HttpResponse<String> ping = client.send(get("/api/test", null), HttpResponse.BodyHandlers.ofString());
+        assertEquals(200, ping.statusCode());
+        assertTrue(Duration.ofNanos(System.nanoTime() - start).compareTo(UPSTREAM_LATENCY.dividedBy(3)) < 0);
+
+        for (CompletableFuture<HttpResponse<String>> response : responses) {
+            assertEquals(200, response.get(10, TimeUnit.SECONDS).statusCode());
+        }
+    }
+
+    private HttpRequest get(String path, String accessToken) {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + port + path));
+        if (accessToken != null) {
+            request.header("Authorization", "Bearer " + accessToken);
+        }
+        return request.build();
+    }
+
+    // tomcat request threads with any of our code on their stack, i.e. held by a request rather than idle in the pool
+    private static long requestThreadsInAppCode() {
+        return Thread.getAllStackTraces().entrySet().stream()
+                .filter(e -> e.getKey().getName().contains("-exec-"))
+                .map(Map.Entry::getValue)
+                .filter(stack -> Arrays.stream(stack).anyMatch(frame -> frame.getClassName().startsWith("com.spotifyproject.")))
+                .count();
+    }
+
+    private static long threadsNamed(String prefix) {
+        return Thread.getAllStackTraces().keySet().stream().filter(t -> t.getName().startsWith(prefix)).count();
+    }
+}
@@ -0,0 +1,208 @@
+package com.spotifyproject.spotirecap;
+
+import com.spotifyproject.spotirecap.cache.CacheInvalidationPublisher;
+import com.spotifyproject.spotirecap.cache.TwoTierCache;
+import com.spotifyproject.spotirecap.upstream.CircuitBreaker;
+
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.sync.RedisCommands;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.cache.concurrent.ConcurrentMapCache;
+import org.springframework.data.redis.cache.RedisCacheManager;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import redis.embedded.Redis;
+import redis.embedded.RedisSentinel;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+// the three spring.redis.mode setups against real (embedded) redis processes
+class RedisConfigTests {
+
+    @TempDir
+    Path dataDir;
+
+    private final List<Redis> processes = new ArrayList<>();
+    private final List<LettuceConnectionFactory> factories = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() throws IOException {
+        factories.forEach(LettuceConnectionFactory::destroy);
+        for (int i = processes.size() - 1; i >= 0; i--) {
+            processes.get(i).stop();
+        }
+    }
+
+    @Test
+    void standalone() throws Exception {
+        int port = freePort();
+        start(RedisServer.newRedisServer().port(port).setting("bind 127.0.0.1").build());
+
+        RedisConfig config = config("standalone");
+        ReflectionTestUtils.setField(config, "port", port);
+
+        assertWritesAreReadThroughTheCacheFactory(config);
+    }
+
+    @Test
+    void sentinelWithAReplica() throws Exception {
+        int masterPort = freePort();
+        int replicaPort = freePort();
+        int sentinelPort = freePort();
+        start(RedisServer.newRedisServer().port(masterPort).setting("bind 127.0.0.1").build());
+        start(RedisServer.newRedisServer().port(replicaPort).setting("bind 127.0.0.1").slaveOf("127.0.0.1", masterPort).build());
+        start(RedisSentinel.newRedisSentinel().bind("127.0.0.1").port(sentinelPort)
+                .masterName("mymaster").masterPort(masterPort).quorumSize(1).build());
+
+        RedisConfig config = config("sentinel");
+        ReflectionTestUtils.setField(config, "sentinelNodes", List.of("127.0.0.1:" + sentinelPort));
+
+        assertWritesAreReadThroughTheCacheFactory(config);
+    }
+
+    @Test
+    void clusterOfThreeMasters() throws Exception {
+        List<Integer> ports = List.of(freePort(), freePort(), freePort());
+        for (int port : ports) {
+            start(RedisServer.newRedisServer().port(port)
+                    .setting("bind 127.0.0.1")
+                    .setting("cluster-enabled yes")
+                    .setting("cluster-config-file " + dataDir.resolve("nodes-" + port + ".conf"))
+                    .build());
+        }
+        createCluster(ports);
+
+        RedisConfig config = config("cluster");
+        ReflectionTestUtils.setField(config, "clusterNodes", List.of("127.0.0.1:" + ports.get(0)));
+
+        // keys on all three nodes, the client has to follow the slot map
+        assertWritesAreReadThroughTheCacheFactory(config);
+    }
+
+    @Test
+    void cacheKeepsServingWhileRedisIsDown() throws Exception {
+        RedisConfig config = config("standalone");
+        ReflectionTestUtils.setField(config, "port", freePort());
+
+        LettuceConnectionFactory factory = started(config.cacheRedisConnectionFactory());
+        RedisCacheManager redisCacheManager = config.redisCacheManager(factory);
+        redisCacheManager.initializeCaches();
+        TwoTierCache cache = new TwoTierCache("topTracks", new ConcurrentMapCache("l1"), redisCacheManager.getCache("topTracks"),
+                new CacheInvalidationPublisher(mock(StringRedisTemplate.class)), null, null,
+                new CircuitBreaker(1, Duration.ofMinutes(1)), null, null, null, null);
+
+        // nothing listens on that port: the miss and the write fail on L2, the second get is an L1 hit
+        assertEquals(List.of("tracks"), cache.get("user_long_term", () -> List.of("tracks")));
+        assertEquals(List.of("tracks"), cache.get("user_long_term", () -> List.of("other tracks")));
+        assertEquals(1, cache.getStats().getL2Errors());
+    }
+
+    private void assertWritesAreReadThroughTheCacheFactory(RedisConfig config) throws InterruptedException {
+        StringRedisTemplate master = new StringRedisTemplate(started(config.redisConnectionFactory()));
+        StringRedisTemplate cache = new StringRedisTemplate(started(config.cacheRedisConnectionFactory()));
+
+        for (String key : List.of("topTracks::a_long_term", "topTracks::b_long_term", "topTracks::c_long_term")) {
+            master.opsForValue().set(key, "tracks");
+            assertEquals("tracks", master.opsForValue().get(key));
+            // a replica can be a moment behind
+            assertEquals("tracks", eventually(() -> cache.opsForValue().get(key)));
+        }
+    }
+
+    private RedisConfig config(String mode) {
+        RedisConfig config = new RedisConfig();
+        ReflectionTestUtils.setField(config, "mode", mode);
+        ReflectionTestUtils.setField(config, "host", "127.0.0.1");
+        ReflectionTestUtils.setField(config, "password", "");
+        ReflectionTestUtils.setField(config, "sentinelMaster", "mymaster");
+        ReflectionTestUtils.setField(config, "clusterMaxRedirects", 3);
+        ReflectionTestUtils.setField(config, "clusterTopologyRefresh", Duration.ofSeconds(30));
+        ReflectionTestUtils.setField(config, "cacheReadFrom", "replica-preferred");
+        ReflectionTestUtils.setField(config, "commandTimeout", Duration.ofSeconds(2));
+        ReflectionTestUtils.setField(config, "connectTimeout", Duration.ofSeconds(1));
+        ReflectionTestUtils.setField(config, "poolMaxActive", 4);
+        ReflectionTestUtils.setField(config, "poolMaxIdle", 4);
+        ReflectionTestUtils.setField(config, "poolMinIdle", 0);
+        ReflectionTestUtils.setField(config, "poolMaxWait", Duration.ofMillis(500));
+        ReflectionTestUtils.setField(config, "defaultTtl", Duration.ofHours(1));
+        ReflectionTestUtils.setField(config, "topTracksTtl", Duration.ofHours(1));
+        ReflectionTestUtils.setField(config, "topArtistsTtl", Duration.ofHours(1));
+        ReflectionTestUtils.setField(config, "topGenresTtl", Duration.ofHours(1));
+        ReflectionTestUtils.setField(config, "userProfilesTtl", Duration.ofMinutes(10));
+        ReflectionTestUtils.setField(config, "staleIfError", Duration.ofHours(24));
+        ReflectionTestUtils.setField(config, "compressionThreshold", 512);
+        return config;
+    }
+
+    private LettuceConnectionFactory started(LettuceConnectionFactory factory) {
+        factory.afterPropertiesSet();
+        factory.start();
+        factories.add(factory);
+        return factory;
+    }
+
+    private void start(Redis process) throws IOException {
+        process.start();
+        processes.add(process);
+    }
+
+    // every node gets a third of the slots and meets the first one
+    private static void createCluster(List<Integer> ports) throws InterruptedException {
+        int slotsPerNode = 16384 / ports.size() + 1;
+        for (int i = 0; i < ports.size(); i++) {
+            int from = i * slotsPerNode;
+            int to = Math.min(16384, from + slotsPerNode);
+            int port = ports.get(i);
+            withNode(port, redis -> {
+                redis.clusterAddSlots(IntStream.range(from, to).toArray());
+                redis.clusterMeet("127.0.0.1", ports.get(0));
+                return null;
+            });
+        }
+        for (int port : ports) {
+            assertEquals(true, eventually(() -> withNode(port, redis -> redis.clusterInfo().contains("cluster_state:ok") ? true : null)));
+        }
+    }
+
+    private static <T> T withNode(int port, Function<RedisCommands<String, String>, T> call) {
+        RedisClient client = RedisClient.create("redis://127.0.0.1:" + port);
+        try (StatefulRedisConnection<String, String> connection = client.connect()) {
+            return call.apply(connection.sync());
+        }
+        finally {
+            client.shutdown();
+        }
+    }
+
+    private static <T> T eventually(Supplier<T> read) throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+        T value = read.get();
+        while (value == null && System.nanoTime() < deadline) {
+            Thread.sleep(100);
+            value = read.get();
+        }
+        return value;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package com.spotifyproject.spotirecap;
+
+import com.jayway.jsonpath.JsonPath;
+import com.spotifyproject.spotirecap.model.TokenGrant;
+import com.spotifyproject.spotirecap.service.SpotifyTokenManager;
+import com.spotifyproject.spotirecap.simulator.SpotifyApiSimulator;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.observability.AutoConfigureObservability;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.ResultActions;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.startsWith;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+// the whole app against the local Spotify stand-in instead of the real API
+@SpringBootTest
+@AutoConfigureMockMvc
+@AutoConfigureObservability
+class SimulatedSpotifyTests {
+
+    private static final AtomicInteger REFRESH_TOKENS = new AtomicInteger();
+
+    private static SpotifyApiSimulator simulator;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private SpotifyTokenManager tokenManager;
+
+    @BeforeAll
+    static void startSimulator() {
+        simulator = SpotifyApiSimulator.start(0);
+    }
+
+    @AfterAll
+    static void stopSimulator() {
+        simulator.close();
+    }
+
+    @DynamicPropertySource
+    static void spotifyProperties(DynamicPropertyRegistry registry) {
+        registry.add("spotify.accounts-base-url", () -> simulator.getBaseUrl());
+        registry.add("spotify.api-base-url", () -> simulator.getBaseUrl());
+        registry.add("spotify.client-id", () -> "simulated-client");
+        registry.add("spotify.client-secret", () -> "simulated-secret");
+        // faults are injected on purpose here, neither retries nor an open breaker should carry over between tests
+        registry.add("spotify.dispatch.max-retries", () -> 0);
+        registry.add("spotify.circuit-breaker.failure-threshold", () -> 1000);
+        registry.add("management.endpoints.web.exposure.include", () -> "prometheus");
+        registry.add("management.metrics.distribution.percentiles-histogram.spotify.client.requests", () -> true);
+    }
+
+    @AfterEach
+    void resetSimulator() {
+        simulator.reset();
+    }
+
+    @Test
+    void refreshesTokensAgainstTheSimulator() throws Exception {
+        perform(refresh())
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.access_token", startsWith("sim-access-")))
+                .andExpect(jsonPath("$.expires_in", greaterThan(3590)));
+
+        assertEquals(1, simulator.getRequestCount("/api/token"));
+    }
+
+    @Test
+    void repeatedRefreshesAreServedFromTheTokenCache() throws Exception {
+        String refreshToken = "sim-refresh-" + REFRESH_TOKENS.incrementAndGet();
+
+        String first = perform(refresh(refreshToken)).andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        String second = perform(refresh(refreshToken)).andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+
+        assertEquals(JsonPath.read(first, "$.access_token"), (String) JsonPath.read(second, "$.access_token"));
+        assertEquals(1, simulator.getRequestCount("/api/token"));
+    }
+
+    @Test
+    void concurrentRenewalsShareOneUpstreamCall() throws Exception {
+        String refreshToken = "sim-refresh-" + REFRESH_TOKENS.incrementAndGet();
+        simulator.latency(Duration.ofMillis(200), Duration.ofMillis(200));
+
+        ExecutorService callers = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<TokenGrant>> grants = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                grants.add(callers.submit(() -> tokenManager.getAccessToken(refreshToken)));
+            }
+            Set<String> accessTokens = new HashSet<>();
+            for (Future<TokenGrant> grant : grants) {
+                accessTokens.add(grant.get().accessToken());
+            }
+
+            assertEquals(1, accessTokens.size());
+            assertEquals(1, simulator.getRequestCount("/api/token"));
+        }
+        finally {
+            callers.shutdownNow();
+        }
+    }
+
+    // there's no redis in the test setup, the recap lists are served and revalidated off the node's L1 alone
+    @Test
+    void topTracksRevalidateWithoutRedis() throws Exception {
+        String etag = perform(get("/api/top-tracks")
+                        .header("Authorization", "Bearer sim-access")
+                        .param("timeRange", "short_term")
+                        .param("amount", "5"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(5))
+                .andReturn().getResponse().getHeader("ETag");
+        assertNotNull(etag);
+
+        perform(get("/api/top-tracks")
+                        .header("Authorization", "Bearer sim-access")
+                        .header("If-None-Match", etag)
+                        .param("timeRange", "short_term")
+                        .param("amount", "5"))
+                .andExpect(status().isNotModified());
+    }
+
+    @Test
+    void invalidAmountIsABadRequest() throws Exception {
+        for (String amount : List.of("ten", "0", "-3")) {
+            perform(get("/api/top-artists")
+                            .header("Authorization", "Bearer sim-access")
+                            .param("amount", amount))
+                    .andExpect(status().isBadRequest());
+        }
+
+        // more than the snapshot holds is fine, it's capped at SNAPSHOT_LIMIT
+        perform(get("/api/top-artists")
+                        .header("Authorization", "Bearer sim-access")
+                        .param("amount", "500"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(50));
+    }
+
+    @Test
+    void upstreamRateLimitSurfacesAs429() throws Exception {
+        simulator.rateLimited(1.0, Duration.ofSeconds(1));
+
+        perform(refresh())
+                .andExpect(status().isTooManyRequests())
+                .andExpect(header().string("Retry-After", "1"));
+    }
+
+    @Test
+    void upstreamServerErrorsSurfaceAs503() throws Exception {
+        simulator.serverErrors(1.0);
+
+        perform(refresh())
+                .andExpect(status().isServiceUnavailable());
+    }
+
+    @Test
+    void injectsLatency() throws Exception {
+        simulator.latency(Duration.ofMillis(200), Duration.ofMillis(200));
+
+        long start = System.nanoTime();
+        perform(refresh()).andExpect(status().isOk());
+
+        assertTrue(Duration.ofNanos(System.nanoTime() - start).compareTo(Duration.ofMillis(200)) >= 0);
+    }
+
+    @Test
+    void upstreamCallsShowUpInThePrometheusScrape() throws Exception {
+        perform(refresh()).andExpect(status().isOk());
+
+        mockMvc.perform(get("/actuator/prometheus"))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString(
+                        "endpoint=\"/api/token\",method=\"POST\",outcome=\"SUCCESS\",status=\"200\",le=")))
+                .andExpect(content().string(containsString("spotify_dispatch_queue")))
+                .andExpect(content().string(containsString("http_server_requests_active_seconds")));
+    }
+
+    // the api endpoints answer asynchronously, this waits for the Callable and dispatches its result
+    private ResultActions perform(RequestBuilder builder) throws Exception {
+        MvcResult started = mockMvc.perform(builder).andExpect(request().asyncStarted()).andReturn();
+        return mockMvc.perform(asyncDispatch(started));
+    }
+
+    // a fresh refresh token each time, so nothing comes out of the token cache a previous test filled
+    private static RequestBuilder refresh() {
+        return refresh("sim-refresh-" + REFRESH_TOKENS.incrementAndGet());
+    }
+
+    private static RequestBuilder refresh(String refreshToken) {
+        return post("/api/auth/refresh")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"refresh_token\": \"" + refreshToken + "\"}");
+    }
+}
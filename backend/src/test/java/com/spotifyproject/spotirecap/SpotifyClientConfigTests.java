@@ -0,0 +1,105 @@
+package com.spotifyproject.spotirecap;
+
+import com.spotifyproject.spotirecap.upstream.SpotifyMetricsInterceptor;
+import com.sun.net.httpserver.HttpServer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestTemplate;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SpotifyClientConfigTests {
+
+    private static final int SERVER_THREADS = 16;
+    private static final int CLIENT_THREADS = 4;
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private ExecutorService clientExecutor;
+    private SimpleMeterRegistry meterRegistry;
+    private String baseUrl;
+
+    @BeforeEach
+    void startServer() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/v1/me", exchange -> {
+            sleep(Long.parseLong(exchange.getRequestURI().getQuery().split("=")[1]));
+            byte[] body = "{\"display_name\":\"Test User\"}".getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        serverExecutor = Executors.newFixedThreadPool(SERVER_THREADS);
+        server.setExecutor(serverExecutor);
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+        if (clientExecutor != null) {
+            clientExecutor.shutdownNow();
+        }
+    }
+
+    @Test
+    void readTimeoutIsApplied() {
+        RestTemplate restTemplate = restTemplate("jdk", Duration.ofMillis(200));
+        assertThrows(ResourceAccessException.class,
+                () -> restTemplate.getForObject(baseUrl + "/v1/me?delay=2000", String.class));
+    }
+
+    @Test
+    void callsAreTimedPerEndpointAndStatus() {
+        RestTemplate restTemplate = restTemplate("jdk", Duration.ofMillis(500));
+        restTemplate.getForObject(baseUrl + "/v1/me?delay=0", String.class);
+        restTemplate.getForObject(baseUrl + "/v1/me?delay=0", String.class);
+        assertThrows(ResourceAccessException.class,
+                () -> restTemplate.getForObject(baseUrl + "/v1/me?delay=2000", String.class));
+
+        assertEquals(2, meterRegistry.get(SpotifyMetricsInterceptor.METRIC_NAME)
+                .tag("endpoint", "/v1/me").tag("status", "200").tag("outcome", "SUCCESS").timer().count());
+        assertEquals(1, meterRegistry.get(SpotifyMetricsInterceptor.METRIC_NAME)
+                .tag("endpoint", "/v1/me").tag("status", "IO_ERROR").timer().count());
+    }
+
+    @Test
+    void simpleEngineIsStillAvailable() {
+        RestTemplate restTemplate = restTemplate("simple", Duration.ofSeconds(5));
+        assertTrue(restTemplate.getForObject(baseUrl + "/v1/me?delay=0", String.class).contains("Test User"));
+    }
+
+    private RestTemplate restTemplate(String engine, Duration readTimeout) {
+        SpotifyClientConfig config = new SpotifyClientConfig();
+        ReflectionTestUtils.setField(config, "engine", engine);
+        ReflectionTestUtils.setField(config, "connectTimeout", Duration.ofSeconds(2));
+        ReflectionTestUtils.setField(config, "readTimeout", readTimeout);
+        ReflectionTestUtils.setField(config, "clientThreads", CLIENT_THREADS);
+        clientExecutor = config.spotifyHttpClientExecutor();
+        meterRegistry = new SimpleMeterRegistry();
+        return config.spotifyRestTemplate(clientExecutor, meterRegistry);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.spotifyproject.spotirecap.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.spotifyproject.spotirecap.cache.CacheEnvelope;
+import com.spotifyproject.spotirecap.cache.VersionedJsonRedisSerializer;
+import com.spotifyproject.spotirecap.model.TopGenre;
+import com.spotifyproject.spotirecap.model.TopTrack;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.data.redis.serializer.JdkSerializationRedisSerializer;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+// old layout (HashMaps through the default JDK serializer) vs typed records through VersionedJsonRedisSerializer
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CacheSerializationBenchmark {
+
+    private final JdkSerializationRedisSerializer jdkSerializer = new JdkSerializationRedisSerializer();
+    private VersionedJsonRedisSerializer trackSerializer;
+    private VersionedJsonRedisSerializer genreSerializer;
+
+    private List<Map<String, String>> legacyTracks;
+    private List<Map<String, Object>> legacyGenres;
+    private List<TopTrack> tracks;
+    private List<TopGenre> genres;
+
+    // what TwoTierCache actually hands the serializer, content hash already worked out
+    private CacheEnvelope trackEnvelope;
+    private CacheEnvelope genreEnvelope;
+
+    private byte[] legacyTrackBytes;
+    private byte[] legacyGenreBytes;
+    private byte[] trackBytes;
+    private byte[] genreBytes;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ObjectMapper objectMapper = new ObjectMapper();
+        trackSerializer = new VersionedJsonRedisSerializer(objectMapper,
+                objectMapper.getTypeFactory().constructCollectionType(List.class, TopTrack.class), 512);
+        genreSerializer = new VersionedJsonRedisSerializer(objectMapper,
+                objectMapper.getTypeFactory().constructCollectionType(List.class, TopGenre.class), 512);
+
+        Random random = new Random(42);
+        legacyTracks = new ArrayList<>();
+        tracks = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            String id = "track" + i;
+            String name = "Track number " + i;
+            String artists = "Artist " + random.nextInt(20) + ", Featured Artist " + random.nextInt(20);
+            String cover = imageUrl(random);
+
+            Map<String, String> track = new HashMap<>();
+            track.put("id", id);
+            track.put("name", name);
+            track.put("artists", artists);
+            track.put("albumCoverUrl", cover);
+            legacyTracks.add(track);
+            tracks.add(new TopTrack(id, name, artists, cover));
+        }
+
+        legacyGenres = new ArrayList<>();
+        genres = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            List<String> images = new ArrayList<>();
+            for (int j = 0; j < 9; j++) {
+                images.add(imageUrl(random));
+            }
+
+            Map<String, Object> genre = new HashMap<>();
+            genre.put("genre", "genre " + i);
+            genre.put("count", 10 - i);
+            genre.put("genreArtistImageUrls", images);
+            legacyGenres.add(genre);
+            genres.add(new TopGenre("genre " + i, 10 - i, images, 10 - i));
+        }
+
+        legacyTrackBytes = jdkSerializer.serialize(legacyTracks);
+        legacyGenreBytes = jdkSerializer.serialize(legacyGenres);
+        trackEnvelope = CacheEnvelope.of(tracks);
+        genreEnvelope = CacheEnvelope.of(genres);
+        trackBytes = trackSerializer.serialize(trackEnvelope);
+        genreBytes = genreSerializer.serialize(genreEnvelope);
+    }
+
+    @Benchmark
+    public byte[] serializeTracksJdk() {
+        return jdkSerializer.serialize(legacyTracks);
+    }
+
+    @Benchmark
+    public byte[] serializeTracksVersioned() {
+        return trackSerializer.serialize(trackEnvelope);
+    }
+
+    @Benchmark
+    public Object deserializeTracksJdk() {
+        return jdkSerializer.deserialize(legacyTrackBytes);
+    }
+
+    @Benchmark
+    public Object deserializeTracksVersioned() {
+        return trackSerializer.deserialize(trackBytes);
+    }
+
+    @Benchmark
+    public byte[] serializeGenresJdk() {
+        return jdkSerializer.serialize(legacyGenres);
+    }
+
+    @Benchmark
+    public byte[] serializeGenresVersioned() {
+        return genreSerializer.serialize(genreEnvelope);
+    }
+
+    @Benchmark
+    public Object deserializeGenresJdk() {
+        return jdkSerializer.deserialize(legacyGenreBytes);
+    }
+
+    @Benchmark
+    public Object deserializeGenresVersioned() {
+        return genreSerializer.deserialize(genreBytes);
+    }
+
+    private static String imageUrl(Random random) {
+        StringBuilder url = new StringBuilder("https://i.scdn.co/image/ab67616d0000b273");
+        for (int i = 0; i < 24; i++) {
+            url.append(Character.forDigit(random.nextInt(16), 16));
+        }
+        return url.toString();
+    }
+}
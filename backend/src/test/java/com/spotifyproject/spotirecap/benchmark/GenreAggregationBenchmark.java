@@ -0,0 +1,98 @@
+package com.spotifyproject.spotirecap.benchmark;
+
+import com.spotifyproject.spotirecap.genre.GenreAggregator;
+import com.spotifyproject.spotirecap.model.TopArtist;
+import com.spotifyproject.spotirecap.model.TopGenre;
+import com.spotifyproject.spotirecap.upstream.SpotifyResponseParser;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+// old genre histogram (HashMap<String, Integer> counts, an image list per genre, full sort) vs GenreAggregator, on
+// the recorded 50-artist fixture. the merged case stands in for the other two ranges with the same artists in a
+// different order; the old code has no merge, so it gets the three lists back to back. compare gc.alloc.rate.norm too
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GenreAggregationBenchmark {
+
+    private List<TopArtist> shortTerm;
+    private List<TopArtist> mediumTerm;
+    private List<TopArtist> longTerm;
+    private List<TopArtist> allRanges;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        try (InputStream in = GenreAggregationBenchmark.class.getResourceAsStream("/fixtures/spotify/top-artists.json")) {
+            shortTerm = SpotifyResponseParser.parseTopArtists(in);
+        }
+        mediumTerm = new ArrayList<>(shortTerm);
+        Collections.rotate(mediumTerm, 17);
+        longTerm = new ArrayList<>(shortTerm);
+        Collections.reverse(longTerm);
+
+        allRanges = new ArrayList<>();
+        allRanges.addAll(shortTerm);
+        allRanges.addAll(mediumTerm);
+        allRanges.addAll(longTerm);
+    }
+
+    @Benchmark
+    public List<TopGenre> oneRangeHashMap() {
+        return hashMapHistogram(shortTerm);
+    }
+
+    @Benchmark
+    public List<TopGenre> oneRangeAggregator() {
+        return new GenreAggregator().add(shortTerm).top(50);
+    }
+
+    @Benchmark
+    public List<TopGenre> allRangesHashMap() {
+        return hashMapHistogram(allRanges);
+    }
+
+    @Benchmark
+    public List<TopGenre> allRangesAggregator() {
+        return new GenreAggregator().add(shortTerm).add(mediumTerm).add(longTerm).top(50);
+    }
+
+    // GenreHistogramService before GenreAggregator
+    private static List<TopGenre> hashMapHistogram(List<TopArtist> artistsSnapshot) {
+        Map<String, Integer> genreFrequency = new HashMap<>();
+        Map<String, List<String>> genreArtistImageMap = new HashMap<>();
+
+        for(TopArtist artist: artistsSnapshot) {
+            String artistImageUrl = artist.artistImageUrl();
+
+            for(String genre: artist.genres()) {
+                genreFrequency.put(genre, genreFrequency.getOrDefault(genre, 0) + 1);
+                genreArtistImageMap.putIfAbsent(genre, new ArrayList<>());
+                genreArtistImageMap.get(genre).add(artistImageUrl);
+            }
+        }
+
+        // sorting in descending order
+        return genreFrequency.entrySet().stream()
+                .sorted((a, b) -> b.getValue().compareTo(a.getValue()))
+                .map(entry -> {
+                    List<String> artistImagesForGenre = genreArtistImageMap.getOrDefault(entry.getKey(), Collections.emptyList());
+                    return new TopGenre(
+                            entry.getKey(),
+                            entry.getValue(),
+                            artistImagesForGenre.stream()
+                                    .limit(9)
+                                    .collect(Collectors.toList()),
+                            0);
+                })
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,97 @@
+package com.spotifyproject.spotirecap.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.spotifyproject.spotirecap.model.TopArtist;
+import com.spotifyproject.spotirecap.model.TopTrack;
+import com.spotifyproject.spotirecap.upstream.SpotifyResponseParser;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+// old path (whole response into a Map tree, then picked apart) vs streaming straight into records,
+// on the recorded 50-item fixtures. run with the default -prof gc and compare gc.alloc.rate.norm (bytes/op)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SpotifyResponseParsingBenchmark {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private byte[] topTracksJson;
+    private byte[] topArtistsJson;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        topTracksJson = fixture("top-tracks.json");
+        topArtistsJson = fixture("top-artists.json");
+    }
+
+    @Benchmark
+    public List<TopTrack> topTracksMap() throws IOException {
+        Map<String, Object> body = objectMapper.readValue(topTracksJson, Map.class);
+
+        List<TopTrack> simplifiedResponse = new ArrayList<>();
+        List<Map<String, Object>> items = (List<Map<String, Object>>) body.get("items");
+
+        for (Map<String, Object> item : items) {
+            String trackId = (String) item.get("id");
+            String trackName = (String) item.get("name");
+
+            List<Map<String, Object>> artists = (List<Map<String, Object>>) item.get("artists");
+            String artistNames = artists.stream()
+                    .map(a -> (String) a.get("name"))
+                    .collect(Collectors.joining(", "));
+
+            Map<String, Object> album = (Map<String, Object>) item.get("album");
+            List<Map<String, Object>> images = (List<Map<String, Object>>) album.get("images");
+            String albumCoverUrl = (String) images.get(0).get("url");
+
+            simplifiedResponse.add(new TopTrack(trackId, trackName, artistNames, albumCoverUrl));
+        }
+        return simplifiedResponse;
+    }
+
+    @Benchmark
+    public List<TopTrack> topTracksStreaming() throws IOException {
+        return SpotifyResponseParser.parseTopTracks(new ByteArrayInputStream(topTracksJson));
+    }
+
+    @Benchmark
+    public List<TopArtist> topArtistsMap() throws IOException {
+        Map<String, Object> body = objectMapper.readValue(topArtistsJson, Map.class);
+
+        List<TopArtist> snapshot = new ArrayList<>();
+        List<Map<String, Object>> items = (List<Map<String, Object>>) body.get("items");
+
+        for (Map<String, Object> item : items) {
+            String artistId = (String) item.get("id");
+            String artistName = (String) item.get("name");
+
+            List<Map<String, Object>> images = (List<Map<String, Object>>) item.get("images");
+            String artistImageUrl = (String) images.get(0).get("url");
+
+            snapshot.add(new TopArtist(artistId, artistName, artistImageUrl, new ArrayList<>((List<String>) item.get("genres"))));
+        }
+        return snapshot;
+    }
+
+    @Benchmark
+    public List<TopArtist> topArtistsStreaming() throws IOException {
+        return SpotifyResponseParser.parseTopArtists(new ByteArrayInputStream(topArtistsJson));
+    }
+
+    private static byte[] fixture(String name) throws IOException {
+        try (InputStream in = SpotifyResponseParsingBenchmark.class.getResourceAsStream("/fixtures/spotify/" + name)) {
+            return in.readAllBytes();
+        }
+    }
+}
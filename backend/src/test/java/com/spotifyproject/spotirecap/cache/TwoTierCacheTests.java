@@ -0,0 +1,306 @@
+package com.spotifyproject.spotirecap.cache;
+
+import com.spotifyproject.spotirecap.upstream.CircuitBreaker;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.Cache;
+import org.springframework.cache.concurrent.ConcurrentMapCache;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class TwoTierCacheTests {
+
+    private static final int CALLERS = 32;
+
+    private TwoTierCache cache;
+    private ExecutorService callers;
+
+    @BeforeEach
+    void setUp() {
+        CacheInvalidationPublisher publisher = new CacheInvalidationPublisher(mock(StringRedisTemplate.class));
+        cache = new TwoTierCache("topTracks", new ConcurrentMapCache("l1"), new ConcurrentMapCache("l2"), publisher, null, null, null, null, null, null, null);
+        callers = Executors.newFixedThreadPool(CALLERS);
+    }
+
+    @AfterEach
+    void tearDown() {
+        callers.shutdownNow();
+    }
+
+    @Test
+    void parallelIdenticalMissesMakeOneUpstreamCall() throws Exception {
+        AtomicInteger upstreamCalls = new AtomicInteger();
+        Callable<String> upstream = () -> {
+            upstreamCalls.incrementAndGet();
+            Thread.sleep(200);
+            return "tracks";
+        };
+
+        List<String> results = runConcurrently(() -> cache.get("user_long_term_10", upstream));
+
+        assertEquals(1, upstreamCalls.get());
+        results.forEach(result -> assertEquals("tracks", result));
+        assertEquals("tracks", cache.get("user_long_term_10").get());
+    }
+
+    @Test
+    void failedLoadIsSharedAndNotCached() throws Exception {
+        AtomicInteger upstreamCalls = new AtomicInteger();
+        Callable<String> failingUpstream = () -> {
+            upstreamCalls.incrementAndGet();
+            Thread.sleep(200);
+            throw new IllegalStateException("spotify down");
+        };
+
+        List<Throwable> failures = new ArrayList<>();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < CALLERS; i++) {
+            futures.add(callers.submit(() -> {
+                start.await();
+                return cache.get("user_long_term_10", failingUpstream);
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(10, TimeUnit.SECONDS));
+            failures.add(e.getCause());
+        }
+
+        assertEquals(1, upstreamCalls.get());
+        failures.forEach(failure -> assertInstanceOf(Cache.ValueRetrievalException.class, failure));
+        assertNull(cache.get("user_long_term_10"));
+
+        // the next request tries again instead of replaying the failure
+        assertEquals("tracks", cache.get("user_long_term_10", () -> "tracks"));
+    }
+
+    @Test
+    void staleEntryIsServedAndRefreshedOnce() throws Exception {
+        CacheInvalidationPublisher publisher = new CacheInvalidationPublisher(mock(StringRedisTemplate.class));
+        // runs the refresh inline so the test can check its result right away
+        TwoTierCache swrCache = new TwoTierCache("topTracks", new ConcurrentMapCache("l1"), new ConcurrentMapCache("l2"),
+                publisher, null, null, null, Duration.ofMillis(50), null, null, Runnable::run);
+
+        swrCache.put("user_long_term_10", "old tracks");
+        Thread.sleep(100);
+
+        // stale: no longer good for a 304, but still what a get() serves
+        assertNull(swrCache.contentHash("user_long_term_10"));
+        assertEquals(ContentHash.of("old tracks"), swrCache.currentContentHash("user_long_term_10"));
+
+        AtomicInteger upstreamCalls = new AtomicInteger();
+        assertEquals("old tracks", swrCache.get("user_long_term_10", () -> {
+            upstreamCalls.incrementAndGet();
+            return "new tracks";
+        }));
+
+        assertEquals(1, upstreamCalls.get());
+        assertEquals(1, swrCache.getStats().getStaleServes());
+        assertEquals(1, swrCache.getStats().getRefreshes());
+        assertEquals("new tracks", swrCache.get("user_long_term_10").get());
+    }
+
+    @Test
+    void expiredEntryIsServedOnlyWhileUpstreamIsDown() throws Exception {
+        CacheInvalidationPublisher publisher = new CacheInvalidationPublisher(mock(StringRedisTemplate.class));
+        TwoTierCache staleIfError = new TwoTierCache("topTracks", new ConcurrentMapCache("l1"), new ConcurrentMapCache("l2"),
+                publisher, null, null, null, null, Duration.ofMillis(50), e -> e instanceof UpstreamDown, null);
+
+        staleIfError.put("user_long_term_10", "old tracks");
+        Thread.sleep(100);
+
+        // expired: a plain get() is a miss and there's no hash to revalidate against
+        assertNull(staleIfError.get("user_long_term_10"));
+        assertNull(staleIfError.currentContentHash("user_long_term_10"));
+
+        // the reload can't reach upstream (an open breaker fails the same way), the old entry stands in
+        assertEquals("old tracks", staleIfError.get("user_long_term_10", () -> { throw new UpstreamDown(); }));
+        assertEquals(1, staleIfError.getStats().getStaleIfErrorServes());
+
+        // any other failure is passed on
+        assertThrows(Cache.ValueRetrievalException.class,
+                () -> staleIfError.get("user_long_term_10", () -> { throw new IllegalStateException("bad token"); }));
+
+        // and once upstream answers again the entry is replaced
+        assertEquals("new tracks", staleIfError.get("user_long_term_10", () -> "new tracks"));
+        assertEquals("new tracks", staleIfError.get("user_long_term_10").get());
+    }
+
+    @Test
+    void contentHashFollowsTheCachedValue() {
+        assertNull(cache.contentHash("user_long_term"));
+
+        cache.get("user_long_term", () -> List.of("a", "b"));
+        long hash = cache.contentHash("user_long_term");
+        assertEquals(ContentHash.of(List.of("a", "b")), hash);
+        assertEquals(hash, cache.currentContentHash("user_long_term"));
+
+        // another node's L1 only has L2 to go on, and gets the same hash from it
+        cache.invalidateLocal("user_long_term");
+        assertEquals(hash, cache.contentHash("user_long_term"));
+
+        cache.put("user_long_term", List.of("b", "a"));
+        assertNotEquals(hash, cache.contentHash("user_long_term"));
+    }
+
+    @Test
+    void failingL2DegradesToL1AndOpensTheBreaker() {
+        CacheInvalidationPublisher publisher = new CacheInvalidationPublisher(mock(StringRedisTemplate.class));
+        Cache redisDown = mock(Cache.class);
+        when(redisDown.get(any())).thenThrow(new QueryTimeoutException("redis down"));
+        doThrow(new QueryTimeoutException("redis down")).when(redisDown).put(any(), any());
+        CircuitBreaker breaker = new CircuitBreaker(2, Duration.ofMinutes(1));
+        TwoTierCache degraded = new TwoTierCache("topTracks", new ConcurrentMapCache("l1"), redisDown, publisher,
+                null, null, breaker, null, null, null, null);
+
+        // the miss and the write both fail on L2, the request still gets its value and L1 keeps it
+        assertEquals("tracks", degraded.get("user_long_term", () -> "tracks"));
+        assertEquals("tracks", degraded.get("user_long_term", () -> "other tracks"));
+        assertNull(degraded.contentHash("user_short_term"));
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(2, degraded.getStats().getL2Errors());
+        // open: later misses don't wait on redis at all
+        assertEquals("genres", degraded.get("user_medium_term", () -> "genres"));
+        verify(redisDown, times(1)).get(any());
+    }
+
+    @Test
+    void redisDownAroundTheLockStillServesTheLoad() {
+        CacheInvalidationPublisher publisher = new CacheInvalidationPublisher(mock(StringRedisTemplate.class));
+        RedisCacheLock lock = mock(RedisCacheLock.class);
+        when(lock.tryAcquire(any(), any())).thenReturn("owner").thenReturn(null);
+        doThrow(new QueryTimeoutException("redis down")).when(lock).release(any(), any(), any());
+        when(lock.isHeld(any(), any())).thenThrow(new QueryTimeoutException("redis down"));
+        when(lock.getWaitTimeout()).thenReturn(Duration.ofSeconds(5));
+        when(lock.getPollInterval()).thenReturn(Duration.ofMillis(10));
+        CircuitBreaker breaker = new CircuitBreaker(5, Duration.ofMinutes(1));
+        TwoTierCache cache = new TwoTierCache("topTracks", new ConcurrentMapCache("l1"), new ConcurrentMapCache("l2"), publisher,
+                lock, null, breaker, null, null, null, null);
+
+        // loaded under the lock, releasing it fails
+        assertEquals("tracks", cache.get("user_long_term", () -> "tracks"));
+        // another node holds the lock, checking on it fails
+        assertEquals("artists", cache.get("user_short_term", () -> "artists"));
+
+        assertEquals(2, cache.getStats().getL2Errors());
+    }
+
+    @Test
+    void failingLockFeedsTheBreaker() {
+        CacheInvalidationPublisher publisher = new CacheInvalidationPublisher(mock(StringRedisTemplate.class));
+        RedisCacheLock lock = mock(RedisCacheLock.class);
+        when(lock.tryAcquire(any(), any())).thenThrow(new QueryTimeoutException("redis down"));
+        CircuitBreaker breaker = new CircuitBreaker(1, Duration.ofMinutes(1));
+        TwoTierCache cache = new TwoTierCache("topTracks", new ConcurrentMapCache("l1"), new ConcurrentMapCache("l2"), publisher,
+                lock, null, breaker, null, null, null, null);
+
+        assertEquals("tracks", cache.get("user_long_term", () -> "tracks"));
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    void halfOpenProbeThatFailsOnItsOwnClosesTheBreaker() throws Exception {
+        CacheInvalidationPublisher publisher = new CacheInvalidationPublisher(mock(StringRedisTemplate.class));
+        Cache l2 = mock(Cache.class);
+        when(l2.get(any()))
+                .thenThrow(new QueryTimeoutException("redis down"))
+                .thenThrow(new InvalidDataAccessApiUsageException("WRONGTYPE"))
+                .thenReturn(null);
+        CircuitBreaker breaker = new CircuitBreaker(1, Duration.ofMillis(50));
+        TwoTierCache cache = new TwoTierCache("topTracks", new ConcurrentMapCache("l1"), l2, publisher,
+                null, null, breaker, null, null, null, null);
+
+        assertNull(cache.get("user_long_term"));
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        Thread.sleep(60);
+
+        // the probe reached redis, the command just didn't work. L2 is back for everyone else
+        assertNull(cache.get("user_short_term"));
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertNull(cache.get("user_medium_term"));
+        verify(l2, times(3)).get(any());
+    }
+
+    @Test
+    void unreadableL2EntryIsAMissAndGetsEvicted() {
+        CacheInvalidationPublisher publisher = new CacheInvalidationPublisher(mock(StringRedisTemplate.class));
+        Cache l2 = spy(new ConcurrentMapCache("l2"));
+        doThrow(new SerializationException("unknown field")).doCallRealMethod().when(l2).get(any());
+        CircuitBreaker breaker = new CircuitBreaker(1, Duration.ofMinutes(1));
+        TwoTierCache cache = new TwoTierCache("topTracks", new ConcurrentMapCache("l1"), l2, publisher,
+                null, null, breaker, null, null, null, null);
+
+        assertEquals("tracks", cache.get("user_long_term", () -> "tracks"));
+
+        // redis itself answered fine: no error, the breaker stays closed, and the bad entry was replaced by the reload
+        verify(l2).evict("user_long_term");
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(0, cache.getStats().getL2Errors());
+        assertEquals(1, cache.getStats().getL2Unreadable());
+        assertEquals(1, cache.getStats().getL2Misses());
+        assertEquals(CacheEnvelope.class, l2.get("user_long_term").get().getClass());
+    }
+
+    @Test
+    void managerExposesTierStatsAsMeters() {
+        CacheInvalidationPublisher publisher = new CacheInvalidationPublisher(mock(StringRedisTemplate.class));
+        TwoTierCacheManager cacheManager = new TwoTierCacheManager(new ConcurrentMapCacheManager(), publisher, null, null, null,
+                100, Duration.ofMinutes(1), Map.of(), Map.of(), null, null);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+        // one cache that exists before binding, one created after
+        Cache topTracks = cacheManager.getCache("topTracks");
+        cacheManager.bindTo(registry);
+        Cache topGenres = cacheManager.getCache("topGenres");
+
+        topTracks.get("user_long_term_10", () -> "tracks");
+        topTracks.get("user_long_term_10", () -> "tracks");
+        topGenres.get("user_long_term_10", () -> "genres");
+
+        assertEquals(1, registry.get("cache.gets").tags("cache", "topTracks", "tier", "l1", "result", "hit").functionCounter().count());
+        assertEquals(1, registry.get("cache.gets").tags("cache", "topTracks", "tier", "l2", "result", "miss").functionCounter().count());
+        assertEquals(1, registry.get("cache.gets").tags("cache", "topGenres", "tier", "l1", "result", "miss").functionCounter().count());
+        assertEquals(1, registry.get("cache.size").tags("cache", "topGenres", "tier", "l1").gauge().value());
+        assertEquals(0, registry.get("cache.loads.inflight").tag("cache", "topTracks").gauge().value());
+    }
+
+    private static class UpstreamDown extends RuntimeException {
+    }
+
+    private List<String> runConcurrently(Callable<String> call) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<String>> futures = new ArrayList<>();
+        for (int i = 0; i < CALLERS; i++) {
+            futures.add(callers.submit(() -> {
+                start.await();
+                return call.call();
+            }));
+        }
+        start.countDown();
+
+        List<String> results = new ArrayList<>();
+        for (Future<String> future : futures) {
+            results.add(future.get(10, TimeUnit.SECONDS));
+        }
+        return results;
+    }
+}
@@ -0,0 +1,39 @@
+package com.spotifyproject.spotirecap.cache;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.spotifyproject.spotirecap.model.TopGenre;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VersionedJsonRedisSerializerTests {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final VersionedJsonRedisSerializer serializer = new VersionedJsonRedisSerializer(objectMapper,
+            objectMapper.getTypeFactory().constructCollectionType(List.class, TopGenre.class), 512);
+
+    @Test
+    void roundTripsTheCurrentFormat() {
+        CacheEnvelope envelope = CacheEnvelope.of(List.of(new TopGenre("rap", 2, List.of("https://img/1"), 1.63)));
+
+        CacheEnvelope read = serializer.deserialize(serializer.serialize(envelope));
+
+        assertEquals(envelope, read);
+    }
+
+    @Test
+    void entryFromBeforeTheScoreReadsAsAMiss() {
+        // what a node on the previous format wrote for topGenres: no score, which would otherwise come back as 0
+        byte[] json = "[{\"genre\":\"rap\",\"count\":2,\"genreArtistImageUrls\":[\"https://img/1\"]}]"
+                .getBytes(StandardCharsets.UTF_8);
+        byte[] entry = new byte[VersionedJsonRedisSerializer.HEADER_SIZE + json.length];
+        entry[0] = VersionedJsonRedisSerializer.FORMAT_VERSION - 1;
+        System.arraycopy(json, 0, entry, VersionedJsonRedisSerializer.HEADER_SIZE, json.length);
+
+        assertNull(serializer.deserialize(entry));
+    }
+}
@@ -0,0 +1,65 @@
+package com.spotifyproject.spotirecap.genre;
+
+import com.spotifyproject.spotirecap.model.TopArtist;
+import com.spotifyproject.spotirecap.model.TopGenre;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GenreAggregatorTests {
+
+    @Test
+    void topArtistsOutweighTheTail() {
+        // "pop" has more artists, but only at the bottom of the list
+        List<TopArtist> artists = List.of(
+                artist("1", "rap", "hip hop"),
+                artist("2", "rap"),
+                artist("3", "pop"),
+                artist("4", "pop"),
+                artist("5", "pop"));
+
+        List<TopGenre> genres = new GenreAggregator(new GenreDictionary()).add(artists).top(10);
+
+        assertEquals(List.of("rap", "pop", "hip hop"), genres.stream().map(TopGenre::genre).toList());
+        assertEquals(2, genres.get(0).count());
+        assertEquals(3, genres.get(1).count());
+        // 1/log2(2) + 1/log2(3)
+        assertEquals(1.63, genres.get(0).score());
+        assertEquals(List.of("https://img/1", "https://img/2"), genres.get(0).genreArtistImageUrls());
+    }
+
+    @Test
+    void keepsOnlyTheBestKInOrder() {
+        List<TopArtist> artists = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            artists.add(artist(String.valueOf(i), "genre " + i));
+        }
+
+        List<TopGenre> genres = new GenreAggregator(new GenreDictionary()).add(artists).top(5);
+
+        assertEquals(List.of("genre 0", "genre 1", "genre 2", "genre 3", "genre 4"),
+                genres.stream().map(TopGenre::genre).toList());
+    }
+
+    @Test
+    void mergedRangesCountEachArtistOnce() {
+        List<TopArtist> shortTerm = List.of(artist("1", "rap"), artist("2", "jazz"));
+        List<TopArtist> longTerm = List.of(artist("2", "jazz"), artist("1", "rap"), artist("3", "jazz"));
+
+        List<TopGenre> genres = new GenreAggregator(new GenreDictionary()).add(shortTerm).add(longTerm).top(10);
+
+        TopGenre jazz = genres.get(0);
+        assertEquals("jazz", jazz.genre());
+        assertEquals(2, jazz.count());
+        assertEquals(List.of("https://img/2", "https://img/3"), jazz.genreArtistImageUrls());
+        assertEquals(1, genres.get(1).count());
+    }
+
+    private static TopArtist artist(String id, String... genres) {
+        return new TopArtist(id, "artist " + id, "https://img/" + id, List.of(genres));
+    }
+}
@@ -0,0 +1,56 @@
+package com.spotifyproject.spotirecap.history;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RankHistoryTests {
+
+    @Test
+    void diffOnlyContainsWhatMoved() {
+        List<RankChange> changes = RankHistory.diff(List.of("a", "b", "c", "d"), List.of("a", "c", "b", "e"));
+
+        assertEquals(List.of(
+                new RankChange("c", 3, 2),
+                new RankChange("b", 2, 3),
+                new RankChange("e", null, 4),
+                new RankChange("d", 4, null)
+        ), changes);
+        assertEquals(List.of(), RankHistory.diff(List.of("a", "b"), List.of("a", "b")));
+    }
+
+    @Test
+    void rewindRebuildsEveryEarlierRanking() {
+        List<List<String>> snapshots = List.of(
+                List.of("a", "b", "c"),
+                List.of("b", "a", "c"),
+                List.of("b", "d", "a"),
+                List.of("d", "b", "e")
+        );
+
+        // record like the store does: one delta per snapshot, stored newest first
+        List<RankDelta> newestFirst = new ArrayList<>();
+        List<String> previous = List.of();
+        for (int i = 0; i < snapshots.size(); i++) {
+            newestFirst.add(0, new RankDelta(i, RankHistory.diff(previous, snapshots.get(i))));
+            previous = snapshots.get(i);
+        }
+
+        List<String> current = snapshots.get(snapshots.size() - 1);
+        for (int undo = 0; undo < snapshots.size(); undo++) {
+            Map<String, Integer> ranks = RankHistory.rewind(current, newestFirst.subList(0, undo));
+            List<String> expected = snapshots.get(snapshots.size() - 1 - undo);
+            assertEquals(expected.size(), ranks.size());
+            for (int rank = 1; rank <= expected.size(); rank++) {
+                assertEquals(rank, ranks.get(expected.get(rank - 1)));
+            }
+        }
+
+        // undoing the very first snapshot too leaves nothing, everything counts as new
+        assertTrue(RankHistory.rewind(current, newestFirst).isEmpty());
+    }
+}
@@ -0,0 +1,68 @@
+package com.spotifyproject.spotirecap.image;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ImageProxyCacheTests {
+
+    @TempDir
+    Path cacheDir;
+
+    @Test
+    void onlySpotifyImageHostsAreAllowed() throws Exception {
+        ImageProxyCache cache = cache(DataSize.ofMegabytes(1));
+
+        assertTrue(cache.isAllowed("https://i.scdn.co/image/ab67616d00001e027adac1a4b7d0b352ad6074dc"));
+        assertFalse(cache.isAllowed("http://i.scdn.co/image/ab67616d00001e027adac1a4b7d0b352ad6074dc"));
+        assertFalse(cache.isAllowed("https://i.scdn.co:8443/image/x"));
+        assertFalse(cache.isAllowed("https://user@i.scdn.co/image/x"));
+        assertFalse(cache.isAllowed("https://i.scdn.co.example.com/image/x"));
+        assertFalse(cache.isAllowed("https://169.254.169.254/latest/meta-data"));
+        assertFalse(cache.isAllowed("not a url"));
+        assertThrows(IllegalArgumentException.class, () -> cache.get("https://example.com/image.jpg"));
+    }
+
+    @Test
+    void startupPicksUpEarlierFilesAndEvictsTheOldest() throws Exception {
+        writeImage("oldest.jpg", 400, 1);
+        writeImage("older.png", 400, 2);
+        writeImage("newest.jpg", 400, 3);
+        Files.write(cacheDir.resolve("interrupted123.tmp"), new byte[10]);
+
+        cache(DataSize.ofBytes(1000));
+
+        assertFalse(Files.exists(cacheDir.resolve("oldest.jpg")));
+        assertTrue(Files.exists(cacheDir.resolve("older.png")));
+        assertTrue(Files.exists(cacheDir.resolve("newest.jpg")));
+        assertFalse(Files.exists(cacheDir.resolve("interrupted123.tmp")));
+    }
+
+    private ImageProxyCache cache(DataSize maxDiskSize) throws Exception {
+        ImageProxyCache cache = new ImageProxyCache();
+        ReflectionTestUtils.setField(cache, "enabled", true);
+        ReflectionTestUtils.setField(cache, "cacheDirectory", cacheDir.toString());
+        ReflectionTestUtils.setField(cache, "maxDiskSize", maxDiskSize);
+        ReflectionTestUtils.setField(cache, "maxImageSize", DataSize.ofMegabytes(2));
+        ReflectionTestUtils.setField(cache, "allowedHosts", Set.of("i.scdn.co"));
+        ReflectionTestUtils.setField(cache, "connectTimeout", Duration.ofSeconds(1));
+        ReflectionTestUtils.setField(cache, "readTimeout", Duration.ofSeconds(1));
+        cache.init();
+        return cache;
+    }
+
+    private void writeImage(String name, int bytes, long ageRank) throws Exception {
+        Path file = cacheDir.resolve(name);
+        Files.write(file, new byte[bytes]);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(1_000_000L * ageRank));
+    }
+}
@@ -0,0 +1,42 @@
+package com.spotifyproject.spotirecap.security;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenCipherTests {
+
+    private static final String KEY = Base64.getEncoder().encodeToString(new byte[32]);
+
+    @Test
+    void roundTripsOnlyWithTheSameKeyAndContext() {
+        TokenCipher cipher = cipher(KEY);
+        String sealed = cipher.encrypt("AQDrefresh", "31abcxyz");
+
+        assertFalse(sealed.contains("AQDrefresh"));
+        assertNotEquals(sealed, cipher.encrypt("AQDrefresh", "31abcxyz"));
+        assertEquals("AQDrefresh", cipher.decrypt(sealed, "31abcxyz"));
+        // another node with the same key
+        assertEquals("AQDrefresh", cipher(KEY).decrypt(sealed, "31abcxyz"));
+
+        // moved to someone else's entry, a different key, or plaintext from before encryption
+        assertNull(cipher.decrypt(sealed, "someoneelse"));
+        assertNull(cipher(null).decrypt(sealed, "31abcxyz"));
+        assertNull(cipher.decrypt("AQDrefresh", "31abcxyz"));
+    }
+
+    @Test
+    void rejectsAKeyOfTheWrongSize() {
+        assertThrows(IllegalArgumentException.class, () -> cipher(Base64.getEncoder().encodeToString(new byte[16])));
+    }
+
+    private static TokenCipher cipher(String key) {
+        TokenCipher cipher = new TokenCipher();
+        ReflectionTestUtils.setField(cipher, "encodedKey", key);
+        cipher.init();
+        return cipher;
+    }
+}
@@ -0,0 +1,140 @@
+package com.spotifyproject.spotirecap.service;
+
+import com.spotifyproject.spotirecap.history.ConsentRegistry;
+import com.spotifyproject.spotirecap.history.ListeningHistoryStore;
+import com.spotifyproject.spotirecap.model.TokenGrant;
+import com.spotifyproject.spotirecap.model.TopArtist;
+import com.spotifyproject.spotirecap.model.TopTrack;
+import com.spotifyproject.spotirecap.model.UserProfile;
+import com.spotifyproject.spotirecap.security.TokenCipher;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+// the snapshot job works from a consent it read earlier, an opt-out in the meantime has to win
+class ListeningHistoryServiceTests {
+
+    private static final String KEY = Base64.getEncoder().encodeToString(new byte[32]);
+    private static final String USER = "user-1";
+
+    private RedisServer redis;
+    private LettuceConnectionFactory connectionFactory;
+    private StringRedisTemplate redisTemplate;
+
+    private SpotifySnapshotService snapshots;
+    private SpotifyTokenManager tokenManager;
+    private ConsentRegistry consentRegistry;
+    private ListeningHistoryService historyService;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        redis = RedisServer.newRedisServer().port(port).setting("bind 127.0.0.1").build();
+        redis.start();
+        connectionFactory = new LettuceConnectionFactory("127.0.0.1", port);
+        connectionFactory.afterPropertiesSet();
+        connectionFactory.start();
+        redisTemplate = new StringRedisTemplate(connectionFactory);
+
+        TokenCipher tokenCipher = new TokenCipher();
+        ReflectionTestUtils.setField(tokenCipher, "encodedKey", KEY);
+        ReflectionTestUtils.invokeMethod(tokenCipher, "init");
+        consentRegistry = new ConsentRegistry();
+        ReflectionTestUtils.setField(consentRegistry, "redisTemplate", redisTemplate);
+        ReflectionTestUtils.setField(consentRegistry, "tokenCipher", tokenCipher);
+
+        ListeningHistoryStore historyStore = new ListeningHistoryStore();
+        ReflectionTestUtils.setField(historyStore, "redisTemplate", redisTemplate);
+        ReflectionTestUtils.setField(historyStore, "retention", Duration.ofDays(400));
+
+        SpotifyUserService users = mock(SpotifyUserService.class);
+        when(users.getProfile(anyString())).thenReturn(new UserProfile(USER, "Drake"));
+        snapshots = mock(SpotifySnapshotService.class);
+        when(snapshots.getTopTracksSnapshot(anyString(), anyString()))
+                .thenReturn(List.of(new TopTrack("t1", "Track", "Artist", null)));
+        when(snapshots.getTopArtistsSnapshot(anyString(), anyString()))
+                .thenReturn(List.of(new TopArtist("a1", "Artist", null, List.of("rap"))));
+        tokenManager = mock(SpotifyTokenManager.class);
+        when(tokenManager.getAccessToken("AQDold")).thenReturn(grant("AQDold"));
+
+        historyService = new ListeningHistoryService();
+        ReflectionTestUtils.setField(historyService, "spotifySnapshotService", snapshots);
+        ReflectionTestUtils.setField(historyService, "spotifyUserService", users);
+        ReflectionTestUtils.setField(historyService, "spotifyTokenManager", tokenManager);
+        ReflectionTestUtils.setField(historyService, "consentRegistry", consentRegistry);
+        ReflectionTestUtils.setField(historyService, "historyStore", historyStore);
+
+        consentRegistry.grant(USER, "AQDold");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        connectionFactory.destroy();
+        redis.stop();
+    }
+
+    @Test
+    void snapshotRecordsHistoryWhileOptedIn() {
+        assertTrue(historyService.snapshot(USER, "AQDold"));
+        assertFalse(historyKeys().isEmpty());
+    }
+
+    @Test
+    void optOutWhileSpotifyIsQueriedLeavesNoHistory() {
+        when(snapshots.getTopArtistsSnapshot(anyString(), eq("long_term"))).thenAnswer(invocation -> {
+            historyService.optOut("Bearer user-token");
+            return List.of(new TopArtist("a1", "Artist", null, List.of("rap")));
+        });
+
+        assertFalse(historyService.snapshot(USER, "AQDold"));
+        assertFalse(consentRegistry.hasConsent(USER));
+        assertTrue(historyKeys().isEmpty());
+    }
+
+    @Test
+    void rotatedTokenDoesNotReEnrollAUserWhoOptedOut() {
+        when(tokenManager.getAccessToken("AQDold")).thenAnswer(invocation -> {
+            historyService.optOut("Bearer user-token");
+            return grant("AQDrotated");
+        });
+
+        assertFalse(historyService.snapshot(USER, "AQDold"));
+        assertFalse(consentRegistry.hasConsent(USER));
+        assertTrue(historyKeys().isEmpty());
+    }
+
+    @Test
+    void rotatedTokenReplacesTheStoredOne() {
+        when(tokenManager.getAccessToken("AQDold")).thenReturn(grant("AQDrotated"));
+
+        assertTrue(historyService.snapshot(USER, "AQDold"));
+        consentRegistry.forEach((userId, refreshToken) -> assertEquals("AQDrotated", refreshToken));
+    }
+
+    private Set<String> historyKeys() {
+        return redisTemplate.keys("spotirecap:history:" + USER + ":*");
+    }
+
+    private static TokenGrant grant(String refreshToken) {
+        return new TokenGrant("BQCaccess", refreshToken, System.currentTimeMillis() + 3_600_000);
+    }
+}
@@ -0,0 +1,87 @@
+package com.spotifyproject.spotirecap.service;
+
+import com.spotifyproject.spotirecap.model.TokenGrant;
+import com.spotifyproject.spotirecap.security.TokenCipher;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class SpotifyTokenManagerTests {
+
+    private static final String KEY = Base64.getEncoder().encodeToString(new byte[32]);
+
+    private RedisServer redis;
+    private LettuceConnectionFactory connectionFactory;
+    private StringRedisTemplate redisTemplate;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        redis = RedisServer.newRedisServer().port(port).setting("bind 127.0.0.1").build();
+        redis.start();
+        connectionFactory = new LettuceConnectionFactory("127.0.0.1", port);
+        connectionFactory.afterPropertiesSet();
+        connectionFactory.start();
+        redisTemplate = new StringRedisTemplate(connectionFactory);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        connectionFactory.destroy();
+        redis.stop();
+    }
+
+    @Test
+    void otherNodesShareTheTokenButRedisNeverSeesItInTheClear() {
+        SpotifyService spotify = mock(SpotifyService.class);
+        when(spotify.refreshAccessToken("AQDrefresh"))
+                .thenReturn(new TokenGrant("BQCaccess", "AQDrefresh", System.currentTimeMillis() + 3_600_000));
+
+        assertEquals("BQCaccess", tokenManager(spotify).getAccessToken("AQDrefresh").accessToken());
+
+        // the other node gets the same token from redis, without going to spotify again
+        TokenGrant shared = tokenManager(spotify).getAccessToken("AQDrefresh");
+        assertEquals("BQCaccess", shared.accessToken());
+        assertEquals("AQDrefresh", shared.refreshToken());
+        verify(spotify, times(1)).refreshAccessToken("AQDrefresh");
+
+        Set<String> keys = redisTemplate.keys("spotirecap:*");
+        assertEquals(1, keys.size());
+        String stored = redisTemplate.opsForValue().get(keys.iterator().next());
+        assertFalse(stored.contains("BQCaccess"));
+        assertFalse(stored.contains("AQDrefresh"));
+    }
+
+    private SpotifyTokenManager tokenManager(SpotifyService spotify) {
+        TokenCipher tokenCipher = new TokenCipher();
+        ReflectionTestUtils.setField(tokenCipher, "encodedKey", KEY);
+        ReflectionTestUtils.invokeMethod(tokenCipher, "init");
+
+        SpotifyTokenManager tokenManager = new SpotifyTokenManager();
+        ReflectionTestUtils.setField(tokenManager, "spotifyService", spotify);
+        ReflectionTestUtils.setField(tokenManager, "redisTemplate", redisTemplate);
+        ReflectionTestUtils.setField(tokenManager, "tokenCipher", tokenCipher);
+        ReflectionTestUtils.setField(tokenManager, "cacheSize", 100L);
+        ReflectionTestUtils.setField(tokenManager, "renewAhead", Duration.ofMinutes(10));
+        ReflectionTestUtils.setField(tokenManager, "minValidity", Duration.ofMinutes(2));
+        tokenManager.init();
+        return tokenManager;
+    }
+}
@@ -0,0 +1,81 @@
+package com.spotifyproject.spotirecap.share;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+import redis.embedded.RedisServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SharedRecapStoreTests {
+
+    private RedisServer redis;
+    private LettuceConnectionFactory connectionFactory;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        redis = RedisServer.newRedisServer().port(port).setting("bind 127.0.0.1").build();
+        redis.start();
+        connectionFactory = new LettuceConnectionFactory("127.0.0.1", port);
+        connectionFactory.afterPropertiesSet();
+        connectionFactory.start();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        connectionFactory.destroy();
+        redis.stop();
+    }
+
+    @Test
+    void publishedRecapIsReadableFromEveryNode() throws Exception {
+        Map<String, Object> recap = new LinkedHashMap<>();
+        recap.put("topTracks", List.of(Map.of("trackName", "Hotline Bling")));
+        recap.put("userFirstName", "Drake");
+
+        String id = store().publish(recap);
+        assertTrue(SharedRecapStore.isValidId(id));
+
+        // a node that didn't publish it gets it from redis, byte for byte
+        SharedRecapStore otherNode = store();
+        byte[] gzipped = otherNode.get(id);
+        assertEquals("{\"topTracks\":[{\"trackName\":\"Hotline Bling\"}],\"userFirstName\":\"Drake\"}", gunzip(gzipped));
+        assertSame(gzipped, otherNode.get(id));
+
+        assertNull(otherNode.get("unknownid123"));
+        assertNull(otherNode.get("../../etc"));
+    }
+
+    private SharedRecapStore store() {
+        SharedRecapStore store = new SharedRecapStore();
+        ReflectionTestUtils.setField(store, "redisConnectionFactory", connectionFactory);
+        ReflectionTestUtils.setField(store, "ttl", Duration.ofMinutes(5));
+        ReflectionTestUtils.setField(store, "localCacheSize", DataSize.ofMegabytes(1));
+        store.init();
+        return store;
+    }
+
+    private static String gunzip(byte[] gzipped) throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(gzipped))) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
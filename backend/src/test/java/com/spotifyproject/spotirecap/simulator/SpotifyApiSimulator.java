@@ -0,0 +1,322 @@
+package com.spotifyproject.spotirecap.simulator;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.convert.DurationStyle;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// a stand-in for accounts.spotify.com and api.spotify.com so load tests and benchmarks never touch the real API.
+// serves the recorded fixtures for /v1/me/top/*, /v1/me and /api/token, with injectable latency, 429s and 5xx.
+// point spotify.accounts-base-url and spotify.api-base-url at getBaseUrl(), or run main() standalone (see README)
+public class SpotifyApiSimulator implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(SpotifyApiSimulator.class);
+
+    // z-score of the 99th percentile, turns (median, p99) into a log-normal spread
+    private static final double P99_Z = 2.326;
+    private static final int DEFAULT_LIMIT = 20;
+    private static final int MAX_LIMIT = 50;
+
+    private final HttpServer server;
+    // a thread per in-flight request, otherwise injected latency would serialize everything behind it
+    private final ExecutorService handlerThreads = Executors.newCachedThreadPool();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Map<String, ObjectNode> pages = new HashMap<>();
+    private final Map<String, byte[]> pagesByLimit = new ConcurrentHashMap<>();
+    private final byte[] profile;
+    private final Map<String, LongAdder> requestCounts = new ConcurrentHashMap<>();
+    private final AtomicLong issuedTokens = new AtomicLong();
+
+    private volatile Duration latencyMedian = Duration.ZERO;
+    private volatile Duration latencyP99 = Duration.ZERO;
+    private volatile double rateLimitRate;
+    private volatile Duration retryAfter = Duration.ofSeconds(1);
+    private volatile double serverErrorRate;
+
+    private SpotifyApiSimulator(int port) throws IOException {
+        pages.put("/v1/me/top/tracks", (ObjectNode) objectMapper.readTree(fixture("top-tracks.json")));
+        pages.put("/v1/me/top/artists", (ObjectNode) objectMapper.readTree(fixture("top-artists.json")));
+        profile = fixture("me.json");
+
+        server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        server.setExecutor(handlerThreads);
+        server.createContext("/v1/me/top/", this::handleTopItems);
+        server.createContext("/v1/me", exchange -> handle(exchange, this::serveProfile));
+        server.createContext("/api/token", exchange -> handle(exchange, this::serveToken));
+        server.createContext("/", exchange -> handle(exchange, e -> respond(e, 404, error(404, "Service not found"))));
+    }
+
+    // port 0 picks a free one
+    public static SpotifyApiSimulator start(int port) {
+        try {
+            SpotifyApiSimulator simulator = new SpotifyApiSimulator(port);
+            simulator.server.start();
+            return simulator;
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Could not start the Spotify API simulator", e);
+        }
+    }
+
+    public String getBaseUrl() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    // log-normal response times, a p99 at or below the median means a fixed delay
+    public SpotifyApiSimulator latency(Duration median, Duration p99) {
+        this.latencyMedian = median;
+        this.latencyP99 = p99;
+        return this;
+    }
+
+    // fraction of requests (0..1) answered with 429 and the given Retry-After, like spotify's rolling 30s window
+    public SpotifyApiSimulator rateLimited(double rate, Duration retryAfter) {
+        this.rateLimitRate = rate;
+        this.retryAfter = retryAfter;
+        return this;
+    }
+
+    // fraction of requests (0..1) answered with a 500, 502 or 503
+    public SpotifyApiSimulator serverErrors(double rate) {
+        this.serverErrorRate = rate;
+        return this;
+    }
+
+    public SpotifyApiSimulator reset() {
+        latency(Duration.ZERO, Duration.ZERO);
+        rateLimited(0, Duration.ofSeconds(1));
+        serverErrors(0);
+        requestCounts.clear();
+        return this;
+    }
+
+    public long getRequestCount(String path) {
+        LongAdder count = requestCounts.get(path);
+        return count != null ? count.sum() : 0;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        handlerThreads.shutdownNow();
+    }
+
+    private void handleTopItems(HttpExchange exchange) throws IOException {
+        handle(exchange, e -> {
+            ObjectNode page = pages.get(e.getRequestURI().getPath());
+            if (page == null) {
+                respond(e, 404, error(404, "Service not found"));
+                return;
+            }
+            if (!isAuthorized(e)) {
+                respond(e, 401, error(401, "No token provided"));
+                return;
+            }
+            respond(e, 200, page(e.getRequestURI().getPath(), page, limit(e)));
+        });
+    }
+
+    private void serveProfile(HttpExchange exchange) throws IOException {
+        if (!isAuthorized(exchange)) {
+            respond(exchange, 401, error(401, "No token provided"));
+            return;
+        }
+        respond(exchange, 200, profile);
+    }
+
+    private void serveToken(HttpExchange exchange) throws IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            respond(exchange, 405, error(405, "Method not allowed"));
+            return;
+        }
+        if (exchange.getRequestHeaders().getFirst("Authorization") == null) {
+            respond(exchange, 400, objectMapper.writeValueAsBytes(Map.of("error", "invalid_client")));
+            return;
+        }
+
+        Map<String, String> form = parseForm(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+        String grantType = form.get("grant_type");
+        if (!"authorization_code".equals(grantType) && !"refresh_token".equals(grantType)) {
+            respond(exchange, 400, objectMapper.writeValueAsBytes(Map.of("error", "unsupported_grant_type")));
+            return;
+        }
+
+        long n = issuedTokens.incrementAndGet();
+        Map<String, Object> token = new LinkedHashMap<>();
+        token.put("access_token", "sim-access-" + n);
+        token.put("token_type", "Bearer");
+        token.put("scope", "user-top-read");
+        token.put("expires_in", 3600);
+        // like spotify, a refresh usually doesn't rotate the refresh token
+        if ("authorization_code".equals(grantType)) {
+            token.put("refresh_token", "sim-refresh-" + n);
+        }
+        respond(exchange, 200, objectMapper.writeValueAsBytes(token));
+    }
+
+    // latency and faults apply to every endpoint alike, in the order a real client would see them
+    private void handle(HttpExchange exchange, Handler handler) throws IOException {
+        try (exchange) {
+            requestCounts.computeIfAbsent(exchange.getRequestURI().getPath(), path -> new LongAdder()).increment();
+            sleep(sampleLatency());
+
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            if (random.nextDouble() < rateLimitRate) {
+                exchange.getResponseHeaders().set("Retry-After", String.valueOf(Math.max(1, retryAfter.toSeconds())));
+                respond(exchange, 429, error(429, "API rate limit exceeded"));
+                return;
+            }
+            if (random.nextDouble() < serverErrorRate) {
+                int status = new int[] {500, 502, 503}[random.nextInt(3)];
+                respond(exchange, status, error(status, "Simulated upstream failure"));
+                return;
+            }
+
+            handler.handle(exchange);
+        }
+    }
+
+    private Duration sampleLatency() {
+        Duration median = latencyMedian;
+        Duration p99 = latencyP99;
+        if (median.isZero() || p99.compareTo(median) <= 0) {
+            return median;
+        }
+
+        double sigma = Math.log((double) p99.toNanos() / median.toNanos()) / P99_Z;
+        double sample = median.toNanos() * Math.exp(sigma * ThreadLocalRandom.current().nextGaussian());
+        return Duration.ofNanos((long) sample);
+    }
+
+    // spotify's paging envelope, trimmed to the requested limit. built once per (endpoint, limit)
+    private byte[] page(String path, ObjectNode fixture, int limit) {
+        return pagesByLimit.computeIfAbsent(path + "?limit=" + limit, key -> {
+            ObjectNode page = fixture.deepCopy();
+            ArrayNode items = (ArrayNode) page.get("items");
+            while (items.size() > limit) {
+                items.remove(items.size() - 1);
+            }
+            page.put("limit", limit);
+            page.put("total", fixture.get("items").size());
+            try {
+                return objectMapper.writeValueAsBytes(page);
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private static int limit(HttpExchange exchange) {
+        String limit = parseForm(Objects.requireNonNullElse(exchange.getRequestURI().getRawQuery(), "")).get("limit");
+        try {
+            return limit != null ? Math.max(1, Math.min(MAX_LIMIT, Integer.parseInt(limit))) : DEFAULT_LIMIT;
+        }
+        catch (NumberFormatException e) {
+            return DEFAULT_LIMIT;
+        }
+    }
+
+    private static boolean isAuthorized(HttpExchange exchange) {
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        return authorization != null && authorization.startsWith("Bearer ");
+    }
+
+    private static Map<String, String> parseForm(String encoded) {
+        Map<String, String> values = new HashMap<>();
+        for (String pair : encoded.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                values.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return values;
+    }
+
+    private byte[] error(int status, String message) {
+        try {
+            return objectMapper.writeValueAsBytes(Map.of("error", Map.of("status", status, "message", message)));
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static void sleep(Duration duration) {
+        if (duration.isZero()) {
+            return;
+        }
+        try {
+            Thread.sleep(duration.toMillis(), duration.toNanosPart() % 1_000_000);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static byte[] fixture(String name) throws IOException {
+        try (InputStream in = SpotifyApiSimulator.class.getResourceAsStream("/fixtures/spotify/" + name)) {
+            if (in == null) {
+                throw new IOException("Missing fixture " + name);
+            }
+            return in.readAllBytes();
+        }
+    }
+
+    @FunctionalInterface
+    private interface Handler {
+        void handle(HttpExchange exchange) throws IOException;
+    }
+
+    // standalone for offline capacity runs: mvn -Psimulator test-compile exec:exec -Dsimulator.args="port=8090 latency-median=80ms ..."
+    public static void main(String[] args) throws InterruptedException {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq > 0) {
+                options.put(arg.substring(0, eq), arg.substring(eq + 1));
+            }
+        }
+
+        SpotifyApiSimulator simulator = start(Integer.parseInt(options.getOrDefault("port", "8090")))
+                .latency(DurationStyle.detectAndParse(options.getOrDefault("latency-median", "0ms")),
+                        DurationStyle.detectAndParse(options.getOrDefault("latency-p99", "0ms")))
+                .rateLimited(Double.parseDouble(options.getOrDefault("rate-limit-rate", "0")),
+                        DurationStyle.detectAndParse(options.getOrDefault("retry-after", "1s")))
+                .serverErrors(Double.parseDouble(options.getOrDefault("server-error-rate", "0")));
+
+        Runtime.getRuntime().addShutdownHook(new Thread(simulator::close));
+        log.info("Spotify API simulator running at {} with {}", simulator.getBaseUrl(), options);
+        Thread.currentThread().join();
+    }
+}
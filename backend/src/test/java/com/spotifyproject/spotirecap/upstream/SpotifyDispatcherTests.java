@@ -0,0 +1,216 @@
+package com.spotifyproject.spotirecap.upstream;
+
+import com.spotifyproject.spotirecap.exception.SpotifyRateLimitedException;
+import com.spotifyproject.spotirecap.exception.SpotifyUnavailableException;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SpotifyDispatcherTests {
+
+    private SpotifyDispatcher dispatcher;
+
+    @BeforeEach
+    void setUp() {
+        dispatcher = dispatcher(1);
+    }
+
+    @AfterEach
+    void tearDown() {
+        dispatcher.shutdown();
+    }
+
+    @Test
+    void retriesAfterRetryAfter() {
+        AtomicInteger calls = new AtomicInteger();
+
+        String result = dispatcher.execute(() -> {
+            if (calls.incrementAndGet() == 1) {
+                throw tooManyRequests("1");
+            }
+            return "tracks";
+        });
+
+        assertEquals("tracks", result);
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    void givesUpWhenRetryAfterIsLongerThanTheTimeout() {
+        SpotifyRateLimitedException e = assertThrows(SpotifyRateLimitedException.class,
+                () -> dispatcher.execute(() -> { throw tooManyRequests("3600"); }));
+        assertEquals(Duration.ofHours(1), e.getRetryAfter());
+    }
+
+    @Test
+    void openBreakerFailsFast() {
+        for (int i = 0; i < 3; i++) {
+            assertThrows(SpotifyUnavailableException.class,
+                    () -> dispatcher.execute(() -> { throw new HttpServerErrorException(HttpStatus.BAD_GATEWAY); }));
+        }
+        assertEquals(CircuitBreaker.State.OPEN, dispatcher.getCircuitState());
+
+        // no upstream call at all while open, the caches serve their expired entries for this (see TwoTierCache)
+        assertThrows(SpotifyUnavailableException.class,
+                () -> dispatcher.execute(() -> { throw new AssertionError("breaker should be open"); }));
+    }
+
+    @Test
+    void rateLimitedProbeClosesTheBreaker() throws Exception {
+        SpotifyDispatcher dispatcher = dispatcher(1, Duration.ofMillis(50), Duration.ofSeconds(5));
+        ReflectionTestUtils.setField(dispatcher, "maxRetries", 0);
+        try {
+            open(dispatcher);
+            Thread.sleep(60);
+
+            // spotify answered, so it isn't down
+            assertThrows(SpotifyRateLimitedException.class, () -> dispatcher.execute(() -> { throw tooManyRequests("0"); }));
+
+            assertEquals("tracks", dispatcher.execute(() -> "tracks"));
+            assertEquals(CircuitBreaker.State.CLOSED, dispatcher.getCircuitState());
+        }
+        finally {
+            dispatcher.shutdown();
+        }
+    }
+
+    @Test
+    void timedOutProbeLetsTheNextCallProbe() throws Exception {
+        SpotifyDispatcher dispatcher = dispatcher(1, Duration.ofMillis(50), Duration.ofMillis(200));
+        try {
+            open(dispatcher);
+            Thread.sleep(60);
+
+            // the caller gives up, the worker is interrupted and ends without an answer from spotify
+            assertThrows(SpotifyUnavailableException.class, () -> dispatcher.execute(() -> {
+                try {
+                    new CountDownLatch(1).await();
+                }
+                catch (InterruptedException e) {
+                    throw new IllegalStateException("cancelled");
+                }
+                return "never";
+            }));
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (dispatcher.getCircuitState() == CircuitBreaker.State.HALF_OPEN && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+
+            assertEquals("tracks", dispatcher.execute(() -> "tracks"));
+            assertEquals(CircuitBreaker.State.CLOSED, dispatcher.getCircuitState());
+        }
+        finally {
+            dispatcher.shutdown();
+        }
+    }
+
+    @Test
+    void probeThatNeverReportsCountsAsFailed() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(1, Duration.ofMillis(50), Duration.ofMillis(50));
+        breaker.recordFailure();
+        Thread.sleep(60);
+
+        assertTrue(breaker.allowRequest());
+        assertFalse(breaker.allowRequest());
+
+        // the probe's deadline passes: open again, and another probe after openDuration
+        Thread.sleep(60);
+        assertFalse(breaker.allowRequest());
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        Thread.sleep(60);
+        assertTrue(breaker.allowRequest());
+    }
+
+    @Test
+    void interactiveRequestsGoAheadOfQueuedBackgroundWork() throws Exception {
+        List<String> order = new CopyOnWriteArrayList<>();
+        CountDownLatch blockerRunning = new CountDownLatch(1);
+        CountDownLatch releaseBlocker = new CountDownLatch(1);
+        ExecutorService callers = Executors.newCachedThreadPool();
+
+        try {
+            // occupy the single worker so everything after this queues up
+            callers.submit(() -> dispatcher.execute(() -> {
+                blockerRunning.countDown();
+                await(releaseBlocker);
+                return "blocker";
+            }));
+            blockerRunning.await();
+
+            Future<?> background = callers.submit(() -> UpstreamPriority.BACKGROUND.call(
+                    () -> dispatcher.execute(() -> order.add("background"))));
+            waitForQueueDepth(1);
+            Future<?> interactive = callers.submit(() -> dispatcher.execute(() -> order.add("interactive")));
+            waitForQueueDepth(2);
+
+            releaseBlocker.countDown();
+            background.get(5, TimeUnit.SECONDS);
+            interactive.get(5, TimeUnit.SECONDS);
+
+            assertEquals(List.of("interactive", "background"), order);
+        }
+        finally {
+            callers.shutdownNow();
+        }
+    }
+
+    private void waitForQueueDepth(int depth) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (dispatcher.getQueueDepth() < depth && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+
+    private static void open(SpotifyDispatcher dispatcher) {
+        for (int i = 0; i < 3; i++) {
+            assertThrows(SpotifyUnavailableException.class,
+                    () -> dispatcher.execute(() -> { throw new HttpServerErrorException(HttpStatus.BAD_GATEWAY); }));
+        }
+        assertEquals(CircuitBreaker.State.OPEN, dispatcher.getCircuitState());
+    }
+
+    private static SpotifyDispatcher dispatcher(int workers) {
+        return dispatcher(workers, Duration.ofMinutes(1), Duration.ofSeconds(5));
+    }
+
+    private static SpotifyDispatcher dispatcher(int workers, Duration openDuration, Duration timeout) {
+        SpotifyDispatcher dispatcher = new SpotifyDispatcher();
+        ReflectionTestUtils.setField(dispatcher, "requestsPerSecond", 100.0);
+        ReflectionTestUtils.setField(dispatcher, "burst", 100);
+        ReflectionTestUtils.setField(dispatcher, "workerCount", workers);
+        ReflectionTestUtils.setField(dispatcher, "timeout", timeout);
+        ReflectionTestUtils.setField(dispatcher, "maxRetries", 2);
+        ReflectionTestUtils.setField(dispatcher, "failureThreshold", 3);
+        ReflectionTestUtils.setField(dispatcher, "openDuration", openDuration);
+        dispatcher.init();
+        return dispatcher;
+    }
+
+    private static HttpClientErrorException tooManyRequests(String retryAfter) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RETRY_AFTER, retryAfter);
+        return HttpClientErrorException.create(HttpStatus.TOO_MANY_REQUESTS, "Too Many Requests", headers, null, null);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.spotifyproject.spotirecap.upstream;
+
+import com.spotifyproject.spotirecap.model.ImageVariant;
+import com.spotifyproject.spotirecap.model.TopArtist;
+import com.spotifyproject.spotirecap.model.TopTrack;
+import com.spotifyproject.spotirecap.model.UserProfile;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SpotifyResponseParserTests {
+
+    @Test
+    void parsesTopTracksFixture() throws IOException {
+        List<TopTrack> tracks;
+        try (InputStream body = fixture("top-tracks.json")) {
+            tracks = SpotifyResponseParser.parseTopTracks(body);
+        }
+
+        assertEquals(50, tracks.size());
+        assertEquals(new TopTrack("2H7TVbWmH777Pu8YbEtE9g", "Track 0", "Artist 21, Artist 25",
+                "https://i.scdn.co/image/ab67616d0000b2737adac1a4b7d0b352ad6074dc",
+                List.of(new ImageVariant("https://i.scdn.co/image/ab67616d0000b2737adac1a4b7d0b352ad6074dc", 640),
+                        new ImageVariant("https://i.scdn.co/image/ab67616d00001e027adac1a4b7d0b352ad6074dc", 300),
+                        new ImageVariant("https://i.scdn.co/image/ab67616d000048517adac1a4b7d0b352ad6074dc", 64))),
+                tracks.get(0));
+    }
+
+    @Test
+    void parsesTopArtistsFixture() throws IOException {
+        List<TopArtist> artists;
+        try (InputStream body = fixture("top-artists.json")) {
+            artists = SpotifyResponseParser.parseTopArtists(body);
+        }
+
+        assertEquals(50, artists.size());
+        TopArtist first = artists.get(0);
+        assertEquals(new TopArtist("Ky9Pf34qY6Nb3wWD25RQ4F", "Artist 0", "https://i.scdn.co/image/ab6761610000b2731c17149d439536b3216fdaee",
+                List.of("k-pop", "dance pop", "hip hop", "indie pop"), first.artistImages()), first);
+        assertEquals(List.of(640, 300, 64), first.artistImages().stream().map(ImageVariant::width).toList());
+        assertEquals(List.of(), artists.get(3).genres());
+    }
+
+    @Test
+    void parsesProfileFixture() throws IOException {
+        try (InputStream body = fixture("me.json")) {
+            assertEquals(new UserProfile("testlistener", "Test Listener"), SpotifyResponseParser.parseProfile(body));
+        }
+    }
+
+    @Test
+    void missingOrNullArraysReadAsEmpty() throws IOException {
+        String json = """
+                {"items": [{"id": "x", "name": "No Images", "images": null, "genres": null}], "total": 1}
+                """;
+
+        List<TopArtist> artists = SpotifyResponseParser.parseTopArtists(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals(List.of(new TopArtist("x", "No Images", null, List.of(), List.of())), artists);
+    }
+
+    @Test
+    void picksTheSmallestImageThatCoversTheDisplaySize() {
+        List<ImageVariant> images = List.of(new ImageVariant("640", 640), new ImageVariant("300", 300), new ImageVariant("64", 64));
+
+        assertEquals("300", ImageVariant.pick(images, 120, "fallback"));
+        assertEquals("64", ImageVariant.pick(images, 64, "fallback"));
+        // nothing is big enough, the largest is the closest
+        assertEquals("640", ImageVariant.pick(images, 850, "fallback"));
+        assertEquals("fallback", ImageVariant.pick(images, null, "fallback"));
+        assertEquals("fallback", ImageVariant.pick(null, 120, "fallback"));
+    }
+
+    private static InputStream fixture(String name) {
+        return SpotifyResponseParserTests.class.getResourceAsStream("/fixtures/spotify/" + name);
+    }
+}
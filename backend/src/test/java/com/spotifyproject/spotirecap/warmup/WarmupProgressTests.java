@@ -0,0 +1,54 @@
+package com.spotifyproject.spotirecap.warmup;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WarmupProgressTests {
+
+    @Test
+    void cursorResumesExactlyAfterTheLastUserDone() {
+        // last-seen order like the sorted set, with ties that straddle page boundaries
+        List<ActiveUser> users = List.of(user("a", 10), user("b", 20), user("c", 20), user("d", 20),
+                user("e", 20), user("f", 30), user("g", 40));
+
+        List<String> visited = new ArrayList<>();
+        WarmupProgress progress = WarmupProgress.start(100, 0, users.size());
+        while (true) {
+            List<ActiveUser> page = page(users, progress, 2);
+            if (page.isEmpty()) {
+                break;
+            }
+            page.forEach(user -> visited.add(user.userId()));
+            progress = progress.advance(page, page.size(), 0, 0);
+        }
+
+        assertEquals(List.of("a", "b", "c", "d", "e", "f", "g"), visited);
+        assertEquals(100.0, progress.coverage());
+    }
+
+    @Test
+    void coverageLeavesRevokedUsersOut() {
+        WarmupProgress progress = WarmupProgress.start(100, 0, 10)
+                .advance(List.of(user("a", 1), user("b", 2), user("c", 3), user("d", 4)), 2, 1, 1);
+
+        assertEquals(2 * 100.0 / 9, progress.coverage(), 1e-9);
+        assertEquals(100.0, WarmupProgress.start(100, 0, 0).coverage());
+    }
+
+    // what ActiveUserRegistry.page does against redis: everyone in [cursor, startedAt], minus the ties already done
+    private static List<ActiveUser> page(List<ActiveUser> users, WarmupProgress progress, int count) {
+        return users.stream()
+                .filter(user -> user.lastSeen() >= progress.cursor() && user.lastSeen() <= progress.startedAt())
+                .skip(progress.cursorTies())
+                .limit(count)
+                .toList();
+    }
+
+    private static ActiveUser user(String id, long lastSeen) {
+        return new ActiveUser(id, "refresh-" + id, lastSeen);
+    }
+}
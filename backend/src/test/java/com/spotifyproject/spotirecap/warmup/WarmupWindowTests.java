@@ -0,0 +1,71 @@
+package com.spotifyproject.spotirecap.warmup;
+
+import com.spotifyproject.spotirecap.cache.CacheEnvelope;
+import com.spotifyproject.spotirecap.cache.CacheInvalidationPublisher;
+import com.spotifyproject.spotirecap.cache.TwoTierCache;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.concurrent.ConcurrentMapCache;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.time.*;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+class WarmupWindowTests {
+
+    private static final Duration SOFT_TTL = Duration.ofMinutes(15);
+    private static final Duration TTL = Duration.ofHours(1);
+    private static final Duration LEAD = Duration.ofMinutes(40);
+
+    @Test
+    void coversOnlyTheLeadUpToThePeak() {
+        WarmupWindow window = new WarmupWindow(LocalTime.of(18, 0), LEAD, ZoneOffset.UTC);
+
+        assertTrue(window.contains(at("17:20:00")));
+        assertTrue(window.contains(at("17:59:59")));
+        assertFalse(window.contains(at("17:19:59")));
+        assertFalse(window.contains(at("18:00:00")));
+        assertFalse(window.contains(at("03:00:00")));
+        assertEquals(at("18:00:00").plus(Duration.ofDays(1)), window.nextPeak(at("18:30:00")));
+    }
+
+    // the peak is "now", so the cache judges the entries by the real clock
+    @Test
+    void entriesWarmedInTheWindowAreStillCachedAtThePeak() {
+        Instant peak = Instant.now();
+        WarmupWindow window = new WarmupWindow(LocalTime.ofInstant(peak, ZoneOffset.UTC), LEAD, ZoneOffset.UTC);
+        window.checkFits("topTracks", SOFT_TTL, TTL);
+
+        Instant windowStart = peak.minus(LEAD);
+        assertTrue(window.contains(windowStart));
+        ConcurrentMapCache redis = new ConcurrentMapCache("l2");
+        // warmed as the window opened
+        redis.put("warmed", new CacheEnvelope(List.of("tracks"), windowStart.toEpochMilli(), 1));
+        // just fresh enough at the start of the window that the warm-up left it alone
+        redis.put("left alone", new CacheEnvelope(List.of("tracks"), windowStart.minus(SOFT_TTL).plusSeconds(1).toEpochMilli(), 2));
+        // warmed by the old night-time cron, 3am for an evening peak
+        redis.put("warmed at night", new CacheEnvelope(List.of("tracks"), peak.minus(Duration.ofHours(15)).toEpochMilli(), 3));
+
+        TwoTierCache cache = new TwoTierCache("topTracks", new ConcurrentMapCache("l1"), redis,
+                new CacheInvalidationPublisher(mock(StringRedisTemplate.class)), null, null, null, SOFT_TTL, TTL, null, null);
+
+        assertNotNull(cache.get("warmed"));
+        assertNotNull(cache.get("left alone"));
+        assertNull(cache.get("warmed at night"));
+    }
+
+    @Test
+    void rejectsALeadThatOutlivesTheCache() {
+        WarmupWindow window = new WarmupWindow(LocalTime.of(18, 0), Duration.ofMinutes(45), ZoneOffset.UTC);
+
+        assertThrows(IllegalStateException.class, () -> window.checkFits("topTracks", SOFT_TTL, TTL));
+        assertThrows(IllegalArgumentException.class, () -> new WarmupWindow(LocalTime.of(18, 0), Duration.ofDays(1), ZoneOffset.UTC));
+    }
+
+    private static Instant at(String time) {
+        return LocalDate.of(2026, 3, 2).atTime(LocalTime.parse(time)).toInstant(ZoneOffset.UTC);
+    }
+}
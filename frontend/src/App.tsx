@@ -47,7 +47,7 @@ export function App() {
             setToken(data.access_token);
             localStorage.setItem("accessToken", data.access_token);
             localStorage.setItem("refreshToken", data.refresh_token);
-            localStorage.setItem("tokenExpiry", (Date.now() + (3600 * 1000)).toString());
+            localStorage.setItem("tokenExpiry", (Date.now() + ((data.expires_in ?? 3600) * 1000)).toString());
             window.history.replaceState({}, document.title, "/");
             // fetchTopData()
           })
@@ -117,9 +117,14 @@ export function App() {
         : selectedType == "artists" ?  "top-artists"
         : "top-genres";
 
+      // the width (card px) the pictures are drawn at, the backend picks the smallest spotify size that covers it
+      const imageSize =
+        amount === "1" ? (selectedType == "genres" ? 240 : 850)
+        : 120;
+
       try {
         const data = await fetchWithErrorHandling(
-          `${BACKEND_URL}/api/${endpoint}?timeRange=${timeRange}&amount=${amount}`, 
+          `${BACKEND_URL}/api/${endpoint}?timeRange=${timeRange}&amount=${amount}&imageSize=${imageSize}`, 
           { headers: { Authorization: `Bearer ${token}` } },
          
         );
@@ -140,7 +145,8 @@ export function App() {
       return null;
     }
 
-    if(Date.now() >= Number(tokenExpiry)) {
+    // renew a minute early so a request never goes out with a token that dies on the way
+    if(Date.now() >= Number(tokenExpiry) - 60 * 1000) {
       console.log("access token refreshed..");
       try {
         const data = await fetchWithErrorHandling(
@@ -154,7 +160,11 @@ export function App() {
      
       if(data.access_token) {
           localStorage.setItem("accessToken", data.access_token);
-          localStorage.setItem("tokenExpiry", (Date.now() + (3600 * 1000)).toString());
+          localStorage.setItem("tokenExpiry", (Date.now() + ((data.expires_in ?? 3600) * 1000)).toString());
+          // only sent when spotify rotated it
+          if(data.refresh_token) {
+            localStorage.setItem("refreshToken", data.refresh_token);
+          }
           setToken(data.access_token);
           return data.access_token;
         } 
@@ -10,6 +10,7 @@ endpoints = [
     ("/api/top-artists", {"amount": "10", "timeRange": "long_term"}),
     ("/api/top-genres", {"amount": "10", "timeRange": "long_term"}),
     ("/api/user", {}),
+    ("/api/recap", {"amount": "10", "timeRange": "long_term"}),
 ]
 
 headers = {"Authorization": f"Bearer {TOKEN}"}